@@ -0,0 +1,107 @@
+package com.tcs.ion.icamera.cctv.data;
+
+import com.tcs.ion.icamera.cctv.model.Cctv;
+import com.tcs.ion.icamera.cctv.util.Credential;
+import com.tcs.ion.icamera.cctv.util.Network;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The CredentialRanking class learns during the session which credentials work for which
+ * kinds of CCTV, and orders the credentials for each CCTV so that the most likely one is
+ * tried first. Every failed attempt costs round trips and counts towards the lockout that
+ * many cameras apply after repeated failed logins, so on a large site with cameras of
+ * several vendors the right order saves much of both.
+ * <p>
+ * Successes are counted per make and model, per make, and per OUI, the vendor prefix of
+ * the MAC address of the CCTV taken from the ARP table of the host. A credential is ranked
+ * by the successes of the most specific of these that the CCTV shares with the CCTVs it
+ * worked for, and credentials without any successes keep the order they were given in.
+ * <p>
+ * This class contains static methods and cannot be instantiated.
+ */
+public class CredentialRanking {
+    private static final Logger logger = LogManager.getLogger(CredentialRanking.class);
+    // Number of successes of each credential, by make and model, make or OUI
+    private static final Map<String, Map<Credential, AtomicInteger>> successes = new ConcurrentHashMap<>();
+    private static volatile Map<String, String> arpTable = Map.of();
+
+    private CredentialRanking() {
+    }
+
+    /**
+     * Re-reads the ARP table of the host, so that CCTVs found since the last read can be
+     * ranked by their OUI. Called before each round of verification.
+     */
+    public static void refreshArpTable() {
+        arpTable = Network.getArpTable();
+    }
+
+    /**
+     * Records that a credential worked for a CCTV.
+     *
+     * @param cctv       the CCTV the credential worked for
+     * @param credential the credential that worked
+     */
+    public static void recordSuccess(Cctv cctv, Credential credential) {
+        for (String key : keys(cctv)) {
+            if (key != null)
+                successes.computeIfAbsent(key, k -> new ConcurrentHashMap<>())
+                        .computeIfAbsent(credential, c -> new AtomicInteger())
+                        .incrementAndGet();
+        }
+    }
+
+    /**
+     * Orders the credentials for a CCTV so that the one most likely to work comes first.
+     *
+     * @param cctv        the CCTV the credentials are to be tried on
+     * @param credentials the credentials in the order given by the operator
+     * @return the credentials in the order they should be tried in
+     */
+    public static Credential[] rank(Cctv cctv, Credential... credentials) {
+        List<String> keys = keys(cctv);
+
+        // Compare by make and model first, then make, then OUI; the sort is stable, so ties keep the given order
+        Comparator<Credential> order = Comparator.comparingInt(credential -> -count(keys.get(0), credential));
+        order = order.thenComparingInt(credential -> -count(keys.get(1), credential))
+                .thenComparingInt(credential -> -count(keys.get(2), credential));
+
+        Credential[] ranked = credentials.clone();
+        Arrays.sort(ranked, order);
+
+        if (!Arrays.equals(ranked, credentials))
+            logger.info("Trying credentials on {} in learned order, starting with {}", cctv.getIp(), ranked[0].getUsername());
+        return ranked;
+    }
+
+    private static int count(String key, Credential credential) {
+        if (key == null)
+            return 0;
+        AtomicInteger count = successes.getOrDefault(key, Map.of()).get(credential);
+        return count == null ? 0 : count.get();
+    }
+
+    // The make and model, make and OUI of the CCTV, each null when unknown
+    private static List<String> keys(Cctv cctv) {
+        String make = blankToNull(cctv.getMake());
+        String model = blankToNull(cctv.getModel());
+        String mac = cctv.getIp() == null ? null : arpTable.get(cctv.getIp());
+
+        return Arrays.asList(
+                make == null || model == null ? null : "model:" + make.toLowerCase() + "/" + model.toLowerCase(),
+                make == null ? null : "make:" + make.toLowerCase(),
+                mac == null ? null : "oui:" + mac.substring(0, 8));
+    }
+
+    private static String blankToNull(String value) {
+        return value == null || value.isBlank() ? null : value.trim();
+    }
+}
@@ -6,8 +6,10 @@ import org.apache.logging.log4j.Logger;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * The DataStore class serves as a centralized static container for managing and tracking
@@ -16,25 +18,63 @@ import java.util.Map;
  * CCTVs by various metrics, and logging identified and verified CCTVs.
  * <p>
  * This class is implemented as a singleton utility with private constructor to prevent
- * instantiation. Interactions with the store are performed exclusively through static methods.
+ * instantiation. Interactions with the store are performed exclusively through static methods,
+ * which are synchronized as scan stages add CCTVs concurrently.
  */
 public class DataStore {
     private static final Logger logger = LogManager.getLogger(DataStore.class);
     private static final Map<String, Cctv> identifiedCctvs = new HashMap<>();
     private static final List<Cctv> excelCctvs = new ArrayList<>();
+    // Keys of the identified CCTVs that were discovered rather than scanned
+    private static final Set<String> discoveredKeys = new HashSet<>();
     private static int discoveredCctvCount;
     private static int scannedCctvCount;
 
     private DataStore() {}
 
+    // CCTVs without an ONVIF URL, such as RTSP-only hosts, are keyed by their IP and RTSP port
+    private static String key(Cctv cctv) {
+        return cctv.getOnvifUrl() != null ? cctv.getOnvifUrl() : cctv.getIp() + ":" + cctv.getRtspPort();
+    }
+
     /**
      * Adds a discovered CCTV to the identified list if it is not already present
-     * and increments the discovered CCTV count.
+     * and increments the discovered CCTV count. A CCTV that is already present is
+     * kept as it is, so the details gathered for it are not lost.
      *
      * @param cctv the CCTV object representing the camera to add
+     * @return true if the CCTV was added, false if it was already present
      */
-    public static void addDiscoveredCctv(Cctv cctv) {
-        if (identifiedCctvs.put(cctv.getOnvifUrl(), cctv) == null) discoveredCctvCount++;
+    public static synchronized boolean addDiscoveredCctv(Cctv cctv) {
+        if (identifiedCctvs.containsKey(key(cctv)))
+            return false;
+        if (replaceRtspOnlyCctv(cctv))
+            scannedCctvCount--;
+        identifiedCctvs.put(key(cctv), cctv);
+        discoveredKeys.add(key(cctv));
+        discoveredCctvCount++;
+        return true;
+    }
+
+    /**
+     * Removes the CCTV with the given ONVIF URL from the identified list, unless it
+     * has already been verified. A verified CCTV has profiles retrieved from the
+     * camera and is kept even if the camera leaves the network. The discovered or
+     * scanned count the CCTV was added to is decremented.
+     *
+     * @param onvifUrl the ONVIF device service URL of the CCTV to remove
+     * @return true if the CCTV was removed, false otherwise
+     */
+    public static synchronized boolean removeUnverifiedCctv(String onvifUrl) {
+        Cctv cctv = identifiedCctvs.get(onvifUrl);
+        if (cctv == null || cctv.hasProfile())
+            return false;
+        identifiedCctvs.remove(onvifUrl);
+        if (discoveredKeys.remove(onvifUrl))
+            discoveredCctvCount--;
+        else
+            scannedCctvCount--;
+        return true;
     }
 
     /**
@@ -42,7 +82,7 @@ public class DataStore {
      *
      * @return the number of discovered CCTV devices
      */
-    public static int getDiscoveredCctvCount() {
+    public static synchronized int getDiscoveredCctvCount() {
         return discoveredCctvCount;
     }
 
@@ -52,19 +92,57 @@ public class DataStore {
      *
      * @param cctv the CCTV object representing the camera to add
      */
-    public static void addScannedCctv(Cctv cctv) {
-        if (!identifiedCctvs.containsKey(cctv.getOnvifUrl())) {
-            identifiedCctvs.put(cctv.getOnvifUrl(), cctv);
-            scannedCctvCount++;
+    public static synchronized void addScannedCctv(Cctv cctv) {
+        if (!identifiedCctvs.containsKey(key(cctv))) {
+            if (!replaceRtspOnlyCctv(cctv))
+                scannedCctvCount++;
+            identifiedCctvs.put(key(cctv), cctv);
         }
     }
 
+    /**
+     * Records an open RTSP port found by the RTSP port scan. The port is set on the
+     * identified CCTV with the same IP address if there is one, and otherwise a CCTV is
+     * added for the host with an error that ONVIF is not enabled. The lookup and the
+     * addition are one step, so several open ports of one host never add several CCTVs.
+     *
+     * @param ip   the IP address of the host
+     * @param port the open RTSP port of the host
+     * @return true if a CCTV was added, false if an identified one was updated
+     */
+    public static synchronized boolean addOrUpdateRtspCctv(String ip, int port) {
+        Cctv cctv = findByIp(ip);
+        if (cctv != null) {
+            cctv.setRtspPort(port);
+            return false;
+        }
+        addScannedCctv(new Cctv().withIp(ip).withRtspPort(port).withError("ONVIF not enabled for this CCTV."));
+        return true;
+    }
+
+    // Replace the CCTV the RTSP port scan added for the host of an ONVIF device, keeping its RTSP port
+    private static boolean replaceRtspOnlyCctv(Cctv cctv) {
+        if (!cctv.hasOnvifUrl() || cctv.getIp() == null)
+            return false;
+        Cctv rtspOnly = findByIp(cctv.getIp());
+        if (rtspOnly == null || rtspOnly.hasOnvifUrl())
+            return false;
+        // Its key holds the port it was added with, which a later open port may have changed
+        identifiedCctvs.values().removeIf(c -> c == rtspOnly);
+        cctv.setRtspPort(rtspOnly.getRtspPort());
+        return true;
+    }
+
+    private static Cctv findByIp(String ip) {
+        return identifiedCctvs.values().stream().filter(c -> ip.equals(c.getIp())).findFirst().orElse(null);
+    }
+
     /**
      * Retrieves the count of scanned CCTV devices.
      *
      * @return the number of scanned CCTV devices
      */
-    public static int getScannedCctvCount() {
+    public static synchronized int getScannedCctvCount() {
         return scannedCctvCount;
     }
 
@@ -73,7 +151,7 @@ public class DataStore {
      *
      * @return a list containing all identified CCTV objects
      */
-    public static List<Cctv> getIdentifiedCctvs() {
+    public static synchronized List<Cctv> getIdentifiedCctvs() {
         return new ArrayList<>(identifiedCctvs.values());
     }
 
@@ -82,7 +160,7 @@ public class DataStore {
      *
      * @return the number of identified CCTV devices
      */
-    public static int getIdentifiedCctvCount() {
+    public static synchronized int getIdentifiedCctvCount() {
         return identifiedCctvs.size();
     }
 
@@ -93,7 +171,7 @@ public class DataStore {
      * no CCTVs were identified is logged. Otherwise, logs the identified
      * CCTV devices by iterating through each entry in the identifiedCctvs map.
      */
-    public static void printIdentifiedCctvs() {
+    public static synchronized void printIdentifiedCctvs() {
         if (identifiedCctvs.isEmpty()) {
             logger.info("No CCTVs identified.");
         } else {
@@ -110,7 +188,7 @@ public class DataStore {
      * indicating that no CCTVs have been verified. Otherwise, logs a
      * detailed list of the verified CCTVs.
      */
-    public static void printVerifiedCctvs() {
+    public static synchronized void printVerifiedCctvs() {
         if (excelCctvs.isEmpty()) {
             logger.info("No CCTVs verified.");
         } else {
@@ -128,7 +206,7 @@ public class DataStore {
      *
      * @return the count of CCTVs with errors
      */
-    public static int getOnvifCctvErrorCount() {
+    public static synchronized int getOnvifCctvErrorCount() {
         return identifiedCctvs.values().stream().filter(cctv -> !cctv.success()).toList().size();
     }
 
@@ -137,7 +215,7 @@ public class DataStore {
      *
      * @return a list containing all CCTV objects obtained from the Excel data
      */
-    public static List<Cctv> getExcelCctvs() {
+    public static synchronized List<Cctv> getExcelCctvs() {
         return excelCctvs;
     }
 
@@ -147,7 +225,7 @@ public class DataStore {
      *
      * @param cctvs the new list of CCTV objects to be set as the Excel-sourced data
      */
-    public static void setExcelCctvs(List<Cctv> cctvs) {
+    public static synchronized void setExcelCctvs(List<Cctv> cctvs) {
         excelCctvs.clear();
         excelCctvs.addAll(cctvs);
     }
@@ -158,7 +236,7 @@ public class DataStore {
      *
      * @return a list of successfully processed CCTV objects.
      */
-    public static List<Cctv> getCameraResources() {
+    public static synchronized List<Cctv> getCameraResources() {
         return excelCctvs.stream().filter(Cctv::success).toList();
     }
 
@@ -167,7 +245,7 @@ public class DataStore {
      *
      * @return a list of CCTV objects from the identified list that include an ONVIF URL
      */
-    public static List<Cctv> getRefuteOnvifCctvs() {
+    public static synchronized List<Cctv> getRefuteOnvifCctvs() {
         return identifiedCctvs.values().stream().filter(Cctv::hasOnvifUrl).toList();
     }
 
@@ -176,7 +254,7 @@ public class DataStore {
      *
      * @return a list of CCTV objects from the identified list that include an RTSP port
      */
-    public static List<Cctv> getRefuteRtspCctvs() {
+    public static synchronized List<Cctv> getRefuteRtspCctvs() {
         return identifiedCctvs.values().stream().filter(Cctv::hasRtspPort).toList();
     }
 
@@ -187,7 +265,7 @@ public class DataStore {
      *
      * @return the count of CCTV objects with an ONVIF URL
      */
-    public static int getRefuteOnvifCctvCount() {
+    public static synchronized int getRefuteOnvifCctvCount() {
         return getRefuteOnvifCctvs().size();
     }
 
@@ -198,7 +276,7 @@ public class DataStore {
      *
      * @return the total number of identified CCTVs with either an ONVIF URL or an RTSP port
      */
-    public static long getRefuteCctvCount() {
+    public static synchronized long getRefuteCctvCount() {
         return identifiedCctvs.values().stream().filter(cctv -> cctv.hasOnvifUrl() || cctv.hasRtspPort()).count();
     }
 }
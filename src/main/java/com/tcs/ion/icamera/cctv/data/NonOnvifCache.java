@@ -0,0 +1,183 @@
+package com.tcs.ion.icamera.cctv.data;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The NonOnvifCache class remembers the IP addresses and ports that answered the ONVIF
+ * compatibility check with something other than an ONVIF device service, such as the
+ * admin page of a router, a printer or the web interface of a NAS. A network scan skips
+ * these endpoints, so repeat scans of the same site do not post to them again.
+ * <p>
+ * The endpoints are kept in a file so that they outlive the application, by default
+ * {@code non-onvif-endpoints.properties} in the {@code .icamera} folder of the user's home,
+ * which can be changed with the {@code cctv.onvif.negativeCache.file} system property.
+ * Each endpoint expires {@value #DEFAULT_TTL_HOURS} hours after it was found, or after the
+ * number of hours set by the {@code cctv.onvif.negativeCache.ttlHours} system property, so
+ * that a device that is replaced or reconfigured is checked again in time. Endpoints that
+ * could not be checked, because they timed out or asked for authentication, are never
+ * cached.
+ * <p>
+ * This class contains static methods and cannot be instantiated.
+ */
+public class NonOnvifCache {
+    public static final int DEFAULT_TTL_HOURS = 168;
+
+    private static final Logger logger = LogManager.getLogger(NonOnvifCache.class);
+    private static final long TTL_MILLIS = TimeUnit.HOURS.toMillis(Integer.getInteger("cctv.onvif.negativeCache.ttlHours", DEFAULT_TTL_HOURS));
+    private static final Path FILE = Path.of(System.getProperty("cctv.onvif.negativeCache.file",
+            Path.of(System.getProperty("user.home"), ".icamera", "non-onvif-endpoints.properties").toString()));
+    // Time in epoch milliseconds each endpoint was found not to be ONVIF, by IP address and port
+    private static final Map<String, Long> endpoints = new ConcurrentHashMap<>();
+    private static final AtomicInteger skipped = new AtomicInteger();
+    private static volatile boolean loaded;
+
+    private NonOnvifCache() {
+    }
+
+    /**
+     * Checks whether an endpoint is known not to be an ONVIF device service, counting it
+     * as skipped if so.
+     *
+     * @param ip   the IP address of the endpoint
+     * @param port the port of the endpoint
+     * @return {@code true} if the endpoint was found not to be ONVIF and has not expired
+     */
+    public static boolean contains(String ip, int port) {
+        load();
+        Long found = endpoints.get(endpoint(ip, port));
+        if (found == null)
+            return false;
+        if (isExpired(found, System.currentTimeMillis())) {
+            endpoints.remove(endpoint(ip, port), found);
+            return false;
+        }
+
+        skipped.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Remembers that an endpoint answered and is not an ONVIF device service.
+     *
+     * @param ip   the IP address of the endpoint
+     * @param port the port of the endpoint
+     */
+    public static void add(String ip, int port) {
+        load();
+        endpoints.put(endpoint(ip, port), System.currentTimeMillis());
+    }
+
+    /**
+     * Forgets every endpoint, so that the next scan checks every device again.
+     */
+    public static void clear() {
+        load();
+        endpoints.clear();
+        save();
+    }
+
+    /**
+     * Writes the endpoints that have not expired to the cache file. Called at the end of
+     * each network scan.
+     */
+    public static synchronized void save() {
+        long now = System.currentTimeMillis();
+        Properties properties = new Properties();
+        endpoints.forEach((endpoint, found) -> {
+            if (!isExpired(found, now))
+                properties.setProperty(endpoint, Long.toString(found));
+        });
+
+        try {
+            Files.createDirectories(FILE.toAbsolutePath().getParent());
+            // Replace the file in one step, so that a scan stopped halfway never leaves it truncated
+            Path temporary = Files.createTempFile(FILE.toAbsolutePath().getParent(), "non-onvif", ".tmp");
+            try (Writer writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+                properties.store(writer, "Endpoints that are not ONVIF device services, with the time they were found");
+            }
+            Files.move(temporary, FILE, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logger.info("Saved {} non-ONVIF endpoints to {}", properties.size(), FILE);
+        } catch (IOException e) {
+            logger.error("Error saving non-ONVIF endpoints to {}: {}", FILE, e.getMessage());
+        }
+    }
+
+    // Read the cache file on first use
+    private static void load() {
+        if (loaded)
+            return;
+        synchronized (NonOnvifCache.class) {
+            if (!loaded) {
+                read();
+                loaded = true;
+            }
+        }
+    }
+
+    // Read the endpoints of the cache file, dropping the ones that have expired
+    private static void read() {
+        if (!Files.isReadable(FILE))
+            return;
+
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(FILE, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        } catch (IOException e) {
+            logger.error("Error loading non-ONVIF endpoints from {}: {}", FILE, e.getMessage());
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        for (String endpoint : properties.stringPropertyNames()) {
+            try {
+                long found = Long.parseLong(properties.getProperty(endpoint));
+                if (!isExpired(found, now))
+                    endpoints.put(endpoint, found);
+            } catch (NumberFormatException e) {
+                logger.debug("Ignoring non-ONVIF endpoint {} with invalid time", endpoint);
+            }
+        }
+        logger.info("Loaded {} non-ONVIF endpoints from {}", endpoints.size(), FILE);
+    }
+
+    private static boolean isExpired(long found, long now) {
+        return now - found >= TTL_MILLIS;
+    }
+
+    private static String endpoint(String ip, int port) {
+        return ip + ":" + port;
+    }
+
+    /**
+     * Retrieves the number of endpoints currently known not to be ONVIF.
+     *
+     * @return the number of cached endpoints
+     */
+    public static int getSize() {
+        load();
+        return endpoints.size();
+    }
+
+    /**
+     * Retrieves the number of endpoints skipped by scans since the application started.
+     *
+     * @return the number of skipped endpoints
+     */
+    public static int getSkippedCount() {
+        return skipped.get();
+    }
+}
@@ -4,6 +4,7 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.tcs.ion.icamera.cctv.error.OnvifException;
 import com.tcs.ion.icamera.cctv.error.ThrowableTypeAdapter;
+import com.tcs.ion.icamera.cctv.util.Credential;
 import com.tcs.ion.icamera.cctv.util.UrlParser;
 
 import java.util.ArrayList;
@@ -270,6 +271,16 @@ public class Cctv {
         return onvifInfo.password();
     }
 
+    /**
+     * Retrieves the credential the CCTV is being verified with, for the transports that
+     * authenticate in the protocol rather than in the message, such as HTTP Digest.
+     *
+     * @return the username and password, or null if no password has been set
+     */
+    public Credential getCredential() {
+        return onvifInfo.hasCredential() ? new Credential(getUsername(), getPassword()) : null;
+    }
+
     /**
      * Retrieves the port associated with the CCTV object. If an exception occurs during retrieval,
      * a default port value of 554 is returned.
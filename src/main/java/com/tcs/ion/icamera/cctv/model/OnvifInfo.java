@@ -6,16 +6,16 @@ import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.time.Instant;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.util.Base64;
-import java.util.Date;
 
 /**
  * The OnvifInfo class represents a data structure that holds information and utilities for
  * interacting with ONVIF-compliant devices. It provides functionalities for generating
  * necessary security headers for ONVIF requests, managing URLs for specific services,
- * and handling user credentials and expiration details.
+ * and handling user credentials.
  * <p>
  * This class includes methods to generate a nonce, compute a password digest for secure
  * authorization, and construct headers required for ONVIF requests. Additionally, the class
@@ -23,73 +23,87 @@ import java.util.Date;
  * device management, events, imaging, media, and PTZ control.
  * <p>
  * Features such as user credential management, system date-time manipulation, and secure
- * token generation are also covered.
+ * token generation are also covered. The offset of the clock of the device is kept from
+ * its system date and time, and every header is created on the clock of the device with
+ * a fresh nonce.
  * <p>
  * The default username is initialized as "admin", and passwords can be set as needed.
- * Created and expiration times for the security tokens are managed internally.
  */
 public class OnvifInfo {
-    private static final long EXPIRY_TIME_MILLIS = 300000;
     private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss'Z'").withZone(ZoneOffset.UTC);
+    private static final SecureRandom RANDOM = new SecureRandom();
+    // Cloned for each header, which skips the provider lookup of MessageDigest.getInstance
+    private static final MessageDigest SHA1;
+    // The header split around its username, password digest, nonce and created placeholders
+    private static final String[] HEADER_PARTS = """
+            <Security xmlns:wsse="http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-secext-1.0.xsd"
+                              xmlns:wsu="http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-utility-1.0.xsd">
+                        <wsse:UsernameToken wsu:Id="usernameToken">
+                            <wsse:Username>%s</wsse:Username>
+                            <wsse:Password Type="http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-username-token-profile-1.0#PasswordDigest">%s</wsse:Password>
+                            <wsse:Nonce EncodingType="http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-soap-message-security-1.0#Base64Binary">%s</wsse:Nonce>
+                            <wsu:Created>%s</wsu:Created>
+                        </wsse:UsernameToken>
+                    </Security>""".split("%s", -1);
 
-    private final byte[] nonce;
     private String analyticsUrl;
     private String deviceUrl;
     private String eventsUrl;
     private String imagingUrl;
     private String mediaUrl;
     private String ptzUrl;
-    private Date created;
-    private Date expires;
     private String username;
     private String password;
     private String systemDateAndTime;
+    // Difference between the clock of the device and the local clock, in milliseconds
+    private volatile long clockOffset;
+
+    static {
+        try {
+            SHA1 = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-1
+            throw new ExceptionInInitializerError(e);
+        }
+    }
 
     public OnvifInfo() {
-        this.nonce = generateNonce();
-        this.created = new Date();
-        this.expires = new Date(created.getTime() + EXPIRY_TIME_MILLIS);
         this.username = "admin";
     }
 
-    public byte[] generateNonce() {
-        byte[] bytes = new byte[16];
-        new SecureRandom().nextBytes(bytes);
+    /**
+     * Builds a WS-Security UsernameToken header for a single request. Every header carries
+     * a fresh nonce and is created at the current time on the clock of the device, so that
+     * devices whose clock has drifted from the local one still accept the password digest.
+     *
+     * @return the security header
+     */
+    public String header() {
+        byte[] nonce = new byte[16];
+        RANDOM.nextBytes(nonce);
+        String created = DATE_FORMATTER.format(Instant.now().plusMillis(clockOffset));
 
-        return bytes;
-    }
-
-    public String passwordDigest() throws NoSuchAlgorithmException {
         // Password_Digest = Base64 ( SHA-1 ( nonce + created + password ) )
-
-        MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
-
+        MessageDigest sha1 = sha1();
         sha1.update(nonce);
-        sha1.update(created().getBytes());
-        sha1.update(password().getBytes());
-
-        return new String(Base64.getEncoder().encode(sha1.digest()), StandardCharsets.UTF_8);
-    }
-
-    public String nonce() {
-        return new String(Base64.getEncoder().encode(nonce), StandardCharsets.UTF_8);
-    }
+        sha1.update(created.getBytes(StandardCharsets.UTF_8));
+        sha1.update(password().getBytes(StandardCharsets.UTF_8));
+        String passwordDigest = Base64.getEncoder().encodeToString(sha1.digest());
 
-    public String created() {
-        return DATE_FORMATTER.format(created.toInstant());
+        return HEADER_PARTS[0] + username() + HEADER_PARTS[1] + passwordDigest + HEADER_PARTS[2]
+                + Base64.getEncoder().encodeToString(nonce) + HEADER_PARTS[3] + created + HEADER_PARTS[4];
     }
 
-    public String header() throws NoSuchAlgorithmException {
-        return """
-                <Security xmlns:wsse="http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-secext-1.0.xsd"
-                                  xmlns:wsu="http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-utility-1.0.xsd">
-                            <wsse:UsernameToken wsu:Id="usernameToken">
-                                <wsse:Username>%s</wsse:Username>
-                                <wsse:Password Type="http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-username-token-profile-1.0#PasswordDigest">%s</wsse:Password>
-                                <wsse:Nonce EncodingType="http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-soap-message-security-1.0#Base64Binary">%s</wsse:Nonce>
-                                <wsu:Created>%s</wsu:Created>
-                            </wsse:UsernameToken>
-                        </Security>""".formatted(username(), passwordDigest(), nonce(), created());
+    private static MessageDigest sha1() {
+        try {
+            return (MessageDigest) SHA1.clone();
+        } catch (CloneNotSupportedException e) {
+            try {
+                return MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException impossible) {
+                throw new IllegalStateException(impossible);
+            }
+        }
     }
 
     public String analyticsUrl() {
@@ -146,21 +160,6 @@ public class OnvifInfo {
         return this;
     }
 
-    public OnvifInfo setCreated(Date created) {
-        this.created = created;
-        setExpires(new Date(created.getTime() + EXPIRY_TIME_MILLIS));
-        return this;
-    }
-
-    public String expires() {
-        return DATE_FORMATTER.format(expires.toInstant());
-    }
-
-    public OnvifInfo setExpires(Date expires) {
-        this.expires = expires;
-        return this;
-    }
-
     public String username() {
         return username;
     }
@@ -187,12 +186,28 @@ public class OnvifInfo {
         return systemDateAndTime;
     }
 
+    /**
+     * Sets the system date and time reported by the device, and from it the offset of the
+     * clock of the device that the security headers are created with.
+     *
+     * @param systemDateAndTime the UTC date and time of the device, as "yyyy-MM-dd'T'HH:mm:ss'Z'"
+     * @return this ONVIF information
+     */
     public OnvifInfo setSystemDateAndTime(String systemDateAndTime) {
         this.systemDateAndTime = systemDateAndTime;
-        setCreated(Date.from(DATE_FORMATTER.parse(systemDateAndTime, java.time.Instant::from)));
+        this.clockOffset = DATE_FORMATTER.parse(systemDateAndTime, Instant::from).toEpochMilli() - System.currentTimeMillis();
         return this;
     }
 
+    /**
+     * Retrieves the difference between the clock of the device and the local clock.
+     *
+     * @return the clock offset in milliseconds, positive when the device is ahead
+     */
+    public long clockOffset() {
+        return clockOffset;
+    }
+
     @Override
     public String toString() {
         return new Gson().toJson(this);
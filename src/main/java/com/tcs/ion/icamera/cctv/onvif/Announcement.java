@@ -0,0 +1,15 @@
+package com.tcs.ion.icamera.cctv.onvif;
+
+/**
+ * A WS-Discovery announcement multicast by a device when it joins the network
+ * with a Hello, or leaves it with a Bye.
+ *
+ * @param type     whether the device joined or left the network
+ * @param endpoint the announced endpoint; a Bye may carry only its EndpointReference
+ */
+public record Announcement(Type type, ProbeMatch endpoint) {
+
+    public enum Type {
+        HELLO, BYE
+    }
+}
@@ -0,0 +1,13 @@
+package com.tcs.ion.icamera.cctv.onvif;
+
+/**
+ * The verdict of the ONVIF compatibility check of an endpoint found by a network scan.
+ */
+public enum Fingerprint {
+    // The endpoint answered GetCapabilities, so it is an ONVIF device service
+    ONVIF,
+    // The endpoint answered with something else, such as a web page, so it is not an ONVIF device service
+    NOT_ONVIF,
+    // The endpoint could not be checked, because it did not answer in time, asked for authentication or returned a fault
+    UNKNOWN
+}
@@ -0,0 +1,196 @@
+package com.tcs.ion.icamera.cctv.onvif;
+
+import com.tcs.ion.icamera.cctv.data.DataStore;
+import com.tcs.ion.icamera.cctv.model.Cctv;
+import com.tcs.ion.icamera.cctv.util.Network;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.tcs.ion.icamera.cctv.onvif.OnvifDiscovery.WS_DISCOVERY_BUFFER_SIZE;
+import static com.tcs.ion.icamera.cctv.onvif.OnvifDiscovery.WS_DISCOVERY_MULTICAST_ADDRESS;
+
+/**
+ * Listens on the WS-Discovery multicast group for the Hello and Bye announcements
+ * that devices send when they join or leave the network, and keeps the data store
+ * up to date as they arrive.
+ * <p>
+ * A Hello adds the announced device to the data store if it is not already there,
+ * so cameras that reboot or join the network are picked up without a new probe or
+ * network scan. A Bye removes the device again, unless it has already been verified.
+ * A Hello without transport addresses would need a WS-Discovery Resolve and is only
+ * logged; the device will still answer the next probe.
+ * <p>
+ * The listener runs on a daemon thread until it is stopped.
+ * <p>
+ * Note: This class cannot be instantiated.
+ */
+public class OnvifAnnouncementListener {
+    private static final Logger logger = LogManager.getLogger(OnvifAnnouncementListener.class);
+    // Device service URL of each known endpoint reference, to resolve a Bye without addresses
+    private static final Map<String, String> endpoints = new ConcurrentHashMap<>();
+    private static final AtomicInteger helloCount = new AtomicInteger();
+    private static final AtomicInteger byeCount = new AtomicInteger();
+    private static DatagramChannel channel;
+
+    private OnvifAnnouncementListener() {
+    }
+
+    /**
+     * Starts listening for announcements on every network interface, if not already listening.
+     */
+    public static synchronized void start() {
+        if (isRunning())
+            return;
+
+        try {
+            channel = DatagramChannel.open(StandardProtocolFamily.INET)
+                    .setOption(StandardSocketOptions.SO_REUSEADDR, true)
+                    .bind(new InetSocketAddress(WS_DISCOVERY_MULTICAST_ADDRESS.getPort()));
+
+            for (NetworkInterface networkInterface : Network.getNetworkInterfaces().stream().distinct().toList()) {
+                try {
+                    channel.join(WS_DISCOVERY_MULTICAST_ADDRESS.getAddress(), networkInterface);
+                } catch (IOException e) {
+                    logger.error("Error joining multicast group on interface {}: {}", networkInterface.getName(), e.getMessage());
+                }
+            }
+
+            DatagramChannel listening = channel;
+            Thread.ofPlatform().daemon().name("onvif-announcements").start(() -> listen(listening));
+            logger.info("Listening for ONVIF announcements on {}", WS_DISCOVERY_MULTICAST_ADDRESS);
+        } catch (IOException e) {
+            logger.error("Error starting ONVIF announcement listener:", e);
+            stop();
+        }
+    }
+
+    /**
+     * Stops listening for announcements.
+     */
+    public static synchronized void stop() {
+        if (channel == null)
+            return;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.debug("Error closing announcement channel: {}", e.getMessage());
+        }
+        channel = null;
+    }
+
+    /**
+     * Checks whether the listener is running.
+     *
+     * @return {@code true} if the listener is running, {@code false} otherwise
+     */
+    public static synchronized boolean isRunning() {
+        return channel != null && channel.isOpen();
+    }
+
+    /**
+     * Remembers the device service URL of an endpoint found by a probe, so that a later
+     * Bye that carries only the endpoint reference can be matched to its device.
+     *
+     * @param match the match received for the endpoint
+     */
+    static void remember(ProbeMatch match) {
+        String url = match.deviceServiceUrl();
+        if (match.endpointReference() != null && url != null)
+            endpoints.put(match.endpointReference(), url);
+    }
+
+    private static void listen(DatagramChannel channel) {
+        ByteBuffer buffer = ByteBuffer.allocate(WS_DISCOVERY_BUFFER_SIZE);
+
+        while (channel.isOpen()) {
+            try {
+                SocketAddress source = channel.receive(buffer.clear());
+                handle(source, buffer.flip());
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                logger.error("Error receiving ONVIF announcement: {}", e.getMessage());
+            }
+        }
+        logger.info("Stopped listening for ONVIF announcements.");
+    }
+
+    private static void handle(SocketAddress source, ByteBuffer message) {
+        Announcement announcement;
+        try {
+            announcement = OnvifResponseParser.parseAnnouncement(message.array(), message.arrayOffset() + message.position(), message.remaining());
+        } catch (XMLStreamException e) {
+            logger.debug("Ignoring unparsable message from {}: {}", source, e.getMessage());
+            return;
+        }
+
+        // Probes and ProbeMatches of other clients are sent to the same group
+        if (announcement == null)
+            return;
+
+        ProbeMatch endpoint = announcement.endpoint();
+        switch (announcement.type()) {
+            case HELLO -> hello(source, endpoint);
+            case BYE -> bye(source, endpoint);
+        }
+    }
+
+    private static void hello(SocketAddress source, ProbeMatch endpoint) {
+        helloCount.incrementAndGet();
+        String url = endpoint.deviceServiceUrl();
+        if (url == null) {
+            logger.info("Hello from {} for endpoint {} without addresses.", source, endpoint.endpointReference());
+            return;
+        }
+
+        remember(endpoint);
+        if (DataStore.addDiscoveredCctv(new Cctv().withOnvifDeviceUrl(url)))
+            logger.info("ONVIF device {} joined the network.", url);
+    }
+
+    private static void bye(SocketAddress source, ProbeMatch endpoint) {
+        byeCount.incrementAndGet();
+        String url = endpoint.endpointReference() == null ? null : endpoints.remove(endpoint.endpointReference());
+        if (url == null)
+            url = endpoint.deviceServiceUrl();
+        if (url == null) {
+            logger.info("Bye from {} for unknown endpoint {}.", source, endpoint.endpointReference());
+            return;
+        }
+
+        if (DataStore.removeUnverifiedCctv(url))
+            logger.info("ONVIF device {} left the network.", url);
+    }
+
+    /**
+     * Retrieves the number of Hello announcements received since the application started.
+     *
+     * @return the number of Hello announcements
+     */
+    public static int getHelloCount() {
+        return helloCount.get();
+    }
+
+    /**
+     * Retrieves the number of Bye announcements received since the application started.
+     *
+     * @return the number of Bye announcements
+     */
+    public static int getByeCount() {
+        return byeCount.get();
+    }
+}
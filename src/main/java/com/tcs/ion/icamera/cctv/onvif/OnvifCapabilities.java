@@ -2,10 +2,14 @@ package com.tcs.ion.icamera.cctv.onvif;
 
 import com.tcs.ion.icamera.cctv.error.OnvifException;
 import com.tcs.ion.icamera.cctv.model.Cctv;
+import com.tcs.ion.icamera.cctv.util.Deadline;
 import com.tcs.ion.icamera.cctv.util.HttpSoapClient;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
 import static com.tcs.ion.icamera.cctv.onvif.OnvifSoapMessages.ONVIF_GET_CAPABILITIES;
 
 /**
@@ -24,22 +28,54 @@ public class OnvifCapabilities {
 
     /**
      * Sends a request to the ONVIF device to retrieve its capabilities, parses the response,
-     * and updates the provided CCTV device with the parsed device and media URLs.
+     * and updates the provided CCTV device with the parsed device and media URLs. The
+     * call needs no credential, but a camera that asks for HTTP authentication is answered
+     * with the credential of the CCTV, if it has one.
      *
      * @param cctv the CCTV device for which the ONVIF capabilities are being retrieved
+     * @param deadline the deadline shared by the calls of the enquiry
      * @throws OnvifException if an error occurs during the capability retrieval or parsing process
      */
-    public static void get(Cctv cctv) throws OnvifException {
+    public static void get(Cctv cctv, Deadline deadline) throws OnvifException {
         try {
             // Make the request to the ONVIF device
-            String response = HttpSoapClient.postXml(cctv.getOnvifUrl(), ONVIF_GET_CAPABILITIES);
+            String response = HttpSoapClient.postXml(cctv.getOnvifUrl(), ONVIF_GET_CAPABILITIES, deadline, cctv.getCredential());
 
-            // Parse the response and set the media and device URLs in the device info
-            String[] urls = OnvifResponseParser.parseDeviceAndMediaUrl(response);
-            cctv.onvifInfo().setDeviceUrl(urls[0]).setMediaUrl(urls[1]);
+            setUrls(cctv, response);
         } catch (Exception e) {
             logger.error("Error getting capabilities for {} as {}", cctv, e.getMessage());
             throw new OnvifException(e);
         }
     }
+
+    /**
+     * Asynchronously retrieves the capabilities of the ONVIF device and updates the
+     * provided CCTV device with the parsed device and media URLs, answering an HTTP
+     * authentication challenge with the credential of the CCTV, if it has one.
+     *
+     * @param cctv the CCTV device for which the ONVIF capabilities are being retrieved
+     * @param deadline the deadline shared by the calls of the enquiry
+     * @return a future completed once the URLs are set, or exceptionally with an
+     * {@link OnvifException} if an error occurs during the retrieval or parsing process
+     */
+    public static CompletableFuture<Void> getAsync(Cctv cctv, Deadline deadline) {
+        return HttpSoapClient.postXmlAsync(cctv.getOnvifUrl(), ONVIF_GET_CAPABILITIES, deadline, cctv.getCredential())
+                .thenAccept(response -> {
+                    try {
+                        setUrls(cctv, response);
+                    } catch (Exception e) {
+                        throw new CompletionException(new OnvifException(e));
+                    }
+                })
+                .whenComplete((ignored, e) -> {
+                    if (e != null)
+                        logger.error("Error getting capabilities for {} as {}", cctv, e.getMessage());
+                });
+    }
+
+    // Parse the response and set the media and device URLs in the device info
+    private static void setUrls(Cctv cctv, String response) throws Exception {
+        String[] urls = OnvifResponseParser.parseDeviceAndMediaUrl(response);
+        cctv.onvifInfo().setDeviceUrl(urls[0]).setMediaUrl(urls[1]);
+    }
 }
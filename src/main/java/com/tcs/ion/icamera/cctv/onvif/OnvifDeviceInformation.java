@@ -2,11 +2,14 @@ package com.tcs.ion.icamera.cctv.onvif;
 
 import com.tcs.ion.icamera.cctv.error.OnvifException;
 import com.tcs.ion.icamera.cctv.model.Cctv;
+import com.tcs.ion.icamera.cctv.util.Deadline;
 import com.tcs.ion.icamera.cctv.util.HttpSoapClient;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import static com.tcs.ion.icamera.cctv.onvif.OnvifSoapMessages.ONVIF_GET_DEVICE_INFORMATION;
 
@@ -29,9 +32,10 @@ public class OnvifDeviceInformation {
      *
      * @param cctv the {@code Cctv} object representing the ONVIF device for which device
      *             information needs to be fetched and updated.
+     * @param deadline the deadline shared by the calls of the enquiry
      * @throws OnvifException if an error occurs while retrieving or processing the device information.
      */
-    public static void get(Cctv cctv) throws OnvifException {
+    public static void get(Cctv cctv, Deadline deadline) throws OnvifException {
         try {
             // Make the request to the ONVIF device
             String xml = String.format(ONVIF_GET_DEVICE_INFORMATION, cctv.onvifInfo().header());
@@ -39,15 +43,52 @@ public class OnvifDeviceInformation {
 
             // Parse the response and set the make, model and serial number of the Cctv
             // object
-            List<String> deviceInfo = OnvifResponseParser
-                    .parseOnvifDeviceInformation(HttpSoapClient.postXml(cctv.onvifInfo().deviceUrl(), xml));
-
-            cctv.setMake(deviceInfo.get(0));
-            cctv.setModel(deviceInfo.get(1));
-            cctv.setSerialNumber(deviceInfo.get(2));
+            setDeviceInformation(cctv, HttpSoapClient.postXml(cctv.onvifInfo().deviceUrl(), xml, deadline, cctv.getCredential()));
         } catch (Exception e) {
             logger.error("Error getting device information for {} as {}", cctv, e.getMessage());
             throw new OnvifException(e);
         }
     }
+
+    /**
+     * Asynchronously retrieves device information from an ONVIF-enabled CCTV device and
+     * updates the make, model, and serial number of the corresponding {@code Cctv} object.
+     *
+     * @param cctv the {@code Cctv} object representing the ONVIF device for which device
+     *             information needs to be fetched and updated.
+     * @param deadline the deadline shared by the calls of the enquiry
+     * @return a future completed once the device information is set, or exceptionally with
+     * an {@link OnvifException} if an error occurs while retrieving or processing it.
+     */
+    public static CompletableFuture<Void> getAsync(Cctv cctv, Deadline deadline) {
+        String xml;
+        try {
+            xml = String.format(ONVIF_GET_DEVICE_INFORMATION, cctv.onvifInfo().header());
+        } catch (Exception e) {
+            logger.error("Error getting device information for {} as {}", cctv, e.getMessage());
+            return CompletableFuture.failedFuture(new OnvifException(e));
+        }
+
+        return HttpSoapClient.postXmlAsync(cctv.onvifInfo().deviceUrl(), xml, deadline, cctv.getCredential())
+                .thenAccept(response -> {
+                    try {
+                        setDeviceInformation(cctv, response);
+                    } catch (Exception e) {
+                        throw new CompletionException(new OnvifException(e));
+                    }
+                })
+                .whenComplete((ignored, e) -> {
+                    if (e != null)
+                        logger.error("Error getting device information for {} as {}", cctv, e.getMessage());
+                });
+    }
+
+    // Parse the response and set the make, model and serial number of the Cctv object
+    private static void setDeviceInformation(Cctv cctv, String response) throws Exception {
+        List<String> deviceInfo = OnvifResponseParser.parseOnvifDeviceInformation(response);
+
+        cctv.setMake(deviceInfo.get(0));
+        cctv.setModel(deviceInfo.get(1));
+        cctv.setSerialNumber(deviceInfo.get(2));
+    }
 }
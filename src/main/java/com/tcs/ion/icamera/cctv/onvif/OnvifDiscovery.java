@@ -3,15 +3,25 @@ package com.tcs.ion.icamera.cctv.onvif;
 import com.tcs.ion.icamera.cctv.data.DataStore;
 import com.tcs.ion.icamera.cctv.error.OnvifDiscoveryException;
 import com.tcs.ion.icamera.cctv.model.Cctv;
+import com.tcs.ion.icamera.cctv.util.Counter;
+import com.tcs.ion.icamera.cctv.util.IpRange;
+import com.tcs.ion.icamera.cctv.util.IpSet;
 import com.tcs.ion.icamera.cctv.util.Network;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.dom4j.DocumentException;
 
+import javax.xml.stream.XMLStreamException;
 import java.io.IOException;
 import java.net.*;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 import static com.tcs.ion.icamera.cctv.data.DataStore.addDiscoveredCctv;
 import static com.tcs.ion.icamera.cctv.onvif.OnvifSoapMessages.WS_DISCOVERY_PROBE;
@@ -21,19 +31,31 @@ import static com.tcs.ion.icamera.cctv.onvif.OnvifSoapMessages.WS_DISCOVERY_PROB
  * on the network using WS-Discovery protocol. This class leverages
  * multicast to communicate with devices and parse their responses
  * to extract service URLs.
+ * <p>
+ * Every network interface is probed at once through its own non-blocking
+ * {@link DatagramChannel}, all registered on a single {@link Selector}, so
+ * discovery takes one timeout window however many interfaces the host has.
  */
 public class OnvifDiscovery {
     private static final Logger logger = LogManager.getLogger(OnvifDiscovery.class);
     private static final int WS_DISCOVERY_TIMEOUT = 4000;
-    private static final int WS_DISCOVERY_SOCKET_TIMEOUT = 2000;
+    // SOAP-over-UDP retransmission parameters for multicast messages
+    private static final int MULTICAST_UDP_REPEAT = 2;
+    private static final int UDP_MIN_DELAY = 50;
+    private static final int UDP_MAX_DELAY = 250;
+    private static final int UDP_UPPER_DELAY = 500;
+    // Largest payload of a UDP datagram
+    static final int WS_DISCOVERY_BUFFER_SIZE = 65507;
     private static final int WS_DISCOVERY_MULTICAST_PORT = 3702;
     private static final String WS_DISCOVERY_MULTICAST_IP_ADDRESS = "239.255.255.250";
-    private static final InetAddress WS_DISCOVERY_MULTICAST_INET_ADDRESS;
-    private static String currentInterfaceName;
+    static final InetSocketAddress WS_DISCOVERY_MULTICAST_ADDRESS;
+    // Time to wait for answers after the last unicast probe has been sent
+    private static final int UNICAST_RESPONSE_WAIT = 2000;
+    private static int quietPeriod = Integer.getInteger("cctv.discovery.quietPeriod", 500);
 
     static {
         try {
-            WS_DISCOVERY_MULTICAST_INET_ADDRESS = InetAddress.getByName(WS_DISCOVERY_MULTICAST_IP_ADDRESS);
+            WS_DISCOVERY_MULTICAST_ADDRESS = new InetSocketAddress(InetAddress.getByName(WS_DISCOVERY_MULTICAST_IP_ADDRESS), WS_DISCOVERY_MULTICAST_PORT);
         } catch (UnknownHostException e) {
             throw new OnvifDiscoveryException("Failed to resolve multicast IP address", e);
         }
@@ -43,167 +65,346 @@ public class OnvifDiscovery {
     }
 
     /**
-     * Sends a WS-Discovery probe packet through the specified multicast socket.
-     * <p>
-     * This method is used to transmit a WS-Discovery probe message to a multicast
-     * group in order to discover ONVIF-compliant devices on the network. It
-     * constructs a `DatagramPacket` containing the probe message and sends it
-     * through the provided `MulticastSocket`.
+     * Sets the quiet period after which discovery ends early once the probe has been
+     * retransmitted and no new ProbeMatch has arrived. A quiet period of 0 waits for
+     * the full discovery timeout.
      *
-     * @param socket the `MulticastSocket` used for sending the probe packet
-     * @throws IOException if an I/O error occurs while sending the packet
+     * @param quietPeriod the quiet period in milliseconds
      */
-    private static void sendData(MulticastSocket socket) {
-        try {
-            // Create a DatagramPacket to send to the multicast group
-            DatagramPacket packet = new DatagramPacket(WS_DISCOVERY_PROBE, WS_DISCOVERY_PROBE.length,
-                    WS_DISCOVERY_MULTICAST_INET_ADDRESS, WS_DISCOVERY_MULTICAST_PORT);
-            // Send the packet through the specified socket
-            socket.send(packet);
+    public static void setQuietPeriod(int quietPeriod) {
+        OnvifDiscovery.quietPeriod = quietPeriod;
+    }
+
+    /**
+     * Discovers ONVIF-compliant devices on all available network interfaces.
+     * <p>
+     * This method opens one datagram channel on each network interface that is up and
+     * capable of multicast communication, sends a WS-Discovery probe through each of them,
+     * and collects the responses of all the interfaces together. If an error occurs on an
+     * interface, it is logged without interrupting the discovery on the other interfaces.
+     * <p>
+     * As UDP gives no delivery guarantee, the probe is retransmitted on the SOAP-over-UDP
+     * backoff schedule with the same MessageID, and responses are de-duplicated by their
+     * MessageID and by the EndpointReference of each ProbeMatch. Discovery ends once the
+     * retransmissions are done and no new ProbeMatch has arrived within the quiet period,
+     * or once the discovery timeout elapses.
+     */
+    public static void discover() {
+        logger.debug("Starting ONVIF device discovery.");
+        Map<String, ProbeMatch> matches = new LinkedHashMap<>();
+
+        try (Selector selector = Selector.open()) {
+            try {
+                for (NetworkInterface networkInterface : Network.getNetworkInterfaces().stream().distinct().toList())
+                    open(selector, networkInterface);
+
+                if (selector.keys().isEmpty())
+                    logger.warn("No network interface available for ONVIF device discovery.");
+                else
+                    receiveResponses(selector, matches);
+            } finally {
+                for (SelectionKey key : selector.keys())
+                    close(key.channel());
+            }
         } catch (IOException e) {
-            // Log an error message if there is an issue sending the data
-            logger.error("Error sending data to multicast group {}", currentInterfaceName, e);
+            logger.error("Error with discovery selector:", e);
         }
+
+        // Process the responses
+        if (matches.isEmpty())
+            logger.warn("No ONVIF devices found.");
+        else
+            addDiscoveredCctvs(matches.values());
+        logger.debug("ONVIF device discovery completed.");
     }
 
     /**
-     * Receives data from a multicast group through the specified multicast socket.
+     * Opens a datagram channel on the specified network interface and registers it with
+     * the selector.
      * <p>
-     * This method creates a `DatagramPacket` to hold the incoming data and
-     * listens for data on the provided `MulticastSocket` instance. If an error
-     * occurs, such as a timeout or I/O problem, it logs an appropriate message
-     * and returns null.
+     * Devices answer the probe directly to the address the channel is bound to, so the
+     * channel only needs an ephemeral port and does not join the multicast group.
      *
-     * @param socket the `MulticastSocket` used to receive data from the multicast group
-     * @return the received `DatagramPacket`, or null if an error occurs during the receiving process
+     * @param selector         the selector that collects the responses of all interfaces
+     * @param networkInterface the network interface to send the probe from
      */
-    private static DatagramPacket receiveData(MulticastSocket socket) {
+    private static void open(Selector selector, NetworkInterface networkInterface) {
+        DatagramChannel channel = null;
+
         try {
-            // Create a byte array to store the received data
-            byte[] data = new byte[4096];
-            // Create a DatagramPacket to receive the data
-            DatagramPacket packet = new DatagramPacket(data, data.length, WS_DISCOVERY_MULTICAST_INET_ADDRESS,
-                    WS_DISCOVERY_MULTICAST_PORT);
-            // Receive the data through the specified socket
-            socket.receive(packet);
-            // Return the received packet
-            return packet;
-        } catch (SocketTimeoutException e) {
-            // Log a warning message if the socket times out
-            logger.warn("Socket receive timed out from multicast group {}", currentInterfaceName);
-        } catch (IOException e) {
-            // Log an error message if there is an error receiving the data
-            logger.error("Error receiving data from multicast group {}", currentInterfaceName, e);
+            channel = DatagramChannel.open(StandardProtocolFamily.INET);
+            channel.bind(new InetSocketAddress(Network.getIPv4InetAddress(networkInterface), 0));
+            channel.setOption(StandardSocketOptions.IP_MULTICAST_IF, networkInterface);
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ, networkInterface);
+        } catch (IOException | RuntimeException e) {
+            logger.error("Error discovering ONVIF devices on interface {}", networkInterface, e);
+            close(channel);
         }
-        // Return null if there is an error
-        return null;
     }
 
     /**
-     * Discovers ONVIF-compliant devices on all available network interfaces.
-     * <p>
-     * This method iterates through all available network interfaces that are up and
-     * capable of multicast communication. For each network interface, it attempts
-     * to discover ONVIF devices by invoking the `discover(NetworkInterface, int)` method
-     * with a free local port. If an error occurs during discovery on an interface,
-     * it is logged without interrupting the discovery process for other interfaces.
+     * Sends the WS-Discovery probe to the multicast group through every registered channel.
+     *
+     * @param selector the selector the channels of all interfaces are registered with
+     */
+    private static void sendProbes(Selector selector) {
+        for (SelectionKey key : selector.keys()) {
+            NetworkInterface networkInterface = (NetworkInterface) key.attachment();
+            try {
+                ((DatagramChannel) key.channel()).send(ByteBuffer.wrap(WS_DISCOVERY_PROBE), WS_DISCOVERY_MULTICAST_ADDRESS);
+                logger.debug("Sent discovery probe to multicast group on interface {}", networkInterface.getName());
+            } catch (IOException e) {
+                logger.error("Error sending discovery probe on interface {}", networkInterface.getName(), e);
+            }
+        }
+    }
+
+    /**
+     * Sends the probes and receives their responses on every registered channel until
+     * discovery is over.
      * <p>
-     * The method logs the start and end of the discovery process, and logs relevant
-     * information for each network interface being used in discovery.
+     * The probe is sent once and repeated {@value #MULTICAST_UDP_REPEAT} times, first
+     * after a random delay between {@value #UDP_MIN_DELAY} and {@value #UDP_MAX_DELAY}
+     * milliseconds, then after twice the previous delay up to {@value #UDP_UPPER_DELAY}
+     * milliseconds, as specified by SOAP-over-UDP.
+     *
+     * @param selector the selector the channels of all interfaces are registered with
+     * @param matches  the matches received so far, keyed by their EndpointReference
+     * @throws IOException if an I/O error occurs on the selector
      */
-    public static void discover() {
-        logger.debug("Starting ONVIF device discovery.");
+    private static void receiveResponses(Selector selector, Map<String, ProbeMatch> matches) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(WS_DISCOVERY_BUFFER_SIZE);
+        Set<String> messageIds = new HashSet<>();
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(WS_DISCOVERY_TIMEOUT);
+        long quietNanos = TimeUnit.MILLISECONDS.toNanos(quietPeriod);
 
-        for (NetworkInterface networkInterface : Network.getNetworkInterfaces()) {
-            currentInterfaceName = networkInterface.getName();
-            logger.info("Discovering ONVIF devices on interface {}", networkInterface);
+        int repeats = MULTICAST_UDP_REPEAT;
+        long delay = ThreadLocalRandom.current().nextLong(UDP_MIN_DELAY, UDP_MAX_DELAY + 1);
+        long nextSend = start + TimeUnit.MILLISECONDS.toNanos(delay);
+        long lastActivity = start;
+        sendProbes(selector);
 
-            try {
-                discover(networkInterface, Network.getFreeLocalPort());
-            } catch (IOException e) {
-                logger.error("Error discovering ONVIF devices on interface {}", networkInterface, e);
+        while (true) {
+            long now = System.nanoTime();
+
+            // Retransmit the probe on the backoff schedule
+            if (repeats > 0 && now >= nextSend) {
+                sendProbes(selector);
+                repeats--;
+                delay = Math.min(delay * 2, UDP_UPPER_DELAY);
+                nextSend = now + TimeUnit.MILLISECONDS.toNanos(delay);
+                lastActivity = now;
+            }
+
+            // End at the deadline, or once quiet after the last retransmission
+            long end = repeats == 0 && quietNanos > 0 ? Math.min(deadline, lastActivity + quietNanos) : deadline;
+            if (now >= end)
+                break;
+
+            long wait = Math.min(end, repeats > 0 ? nextSend : end) - now;
+            selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait)));
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+
+                DatagramChannel channel = (DatagramChannel) key.channel();
+                NetworkInterface networkInterface = (NetworkInterface) key.attachment();
+                try {
+                    // Drain every datagram that is ready on the channel
+                    SocketAddress source;
+                    while ((source = channel.receive(buffer.clear())) != null) {
+                        if (parseResponse(new DiscoveryResponse(networkInterface.getName(), source, buffer.flip()), messageIds, matches) > 0)
+                            lastActivity = System.nanoTime();
+                    }
+                } catch (IOException e) {
+                    logger.error("Error receiving data on interface {}", networkInterface.getName(), e);
+                    key.cancel();
+                    close(channel);
+                }
             }
         }
-        logger.debug("ONVIF device discovery completed.");
+
+        logger.info("Discovery ended after {} ms with {} ProbeMatches.", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), matches.size());
     }
 
     /**
-     * Performs WS-Discovery to find ONVIF-compliant devices on a specific network interface
-     * and port using multicast communication.
+     * Sends the WS-Discovery probe as a unicast datagram to port {@value #WS_DISCOVERY_MULTICAST_PORT}
+     * of every address in the set and collects the ProbeMatches of the devices that answer.
      * <p>
-     * This method establishes a multicast socket on the given network interface and local port,
-     * sends discovery packets to a defined multicast group, and waits for responses from
-     * ONVIF devices. The responses are processed and logged, and any errors during the
-     * discovery process are also logged.
+     * Unlike a multicast probe, this reaches routed subnets where multicast is blocked, and
+     * unlike a port scan, it costs a single datagram per address and returns the actual
+     * device service address of each device. Probes are paced to the given packet rate so
+     * that a large range does not flood the network, and responses are received while the
+     * sweep is still sending.
      *
-     * @param networkInterface the network interface to perform the discovery on
-     * @param localPort        the local port to bind the multicast socket to
+     * @param ips     the addresses to probe
+     * @param rate    the maximum number of probes sent per second
+     * @param counter the counter incremented for every address probed
+     * @return the de-duplicated matches of the devices that answered
      */
-    private static void discover(NetworkInterface networkInterface, int localPort) {
-        try (MulticastSocket socket = new MulticastSocket(new InetSocketAddress(Network.getIPv4InetAddress(networkInterface), localPort))) {
-            socket.joinGroup(new InetSocketAddress(WS_DISCOVERY_MULTICAST_INET_ADDRESS, WS_DISCOVERY_MULTICAST_PORT), networkInterface);
-            socket.setSoTimeout(WS_DISCOVERY_SOCKET_TIMEOUT);
-            logger.debug("Created multicast socket on interface {}", currentInterfaceName);
-
-            // Send the discovery data to the multicast group
-            sendData(socket);
-            logger.debug("Sent discovery packets to multicast group on interface {}", currentInterfaceName);
-
-            // Receive the responses from the ONVIF devices
-            List<DatagramPacket> packets = new ArrayList<>();
-            long startTime = System.currentTimeMillis();
-
-            // Wait for a while to receive all responses
-            while (System.currentTimeMillis() - startTime < WS_DISCOVERY_TIMEOUT)
-                packets.add(receiveData(socket));
-
-            // Process the responses
-            if (packets.isEmpty())
-                logger.warn("No ONVIF devices found on interface {}.", currentInterfaceName);
-            else
-                parseResponses(packets);
+    public static List<ProbeMatch> probe(IpSet ips, int rate, Counter counter) {
+        Map<String, ProbeMatch> matches = new LinkedHashMap<>();
+        Set<String> messageIds = new HashSet<>();
+        long interval = TimeUnit.SECONDS.toNanos(1) / Math.max(1, rate);
+
+        try (Selector selector = Selector.open(); DatagramChannel channel = DatagramChannel.open(StandardProtocolFamily.INET)) {
+            channel.bind(new InetSocketAddress(0));
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ);
+
+            ByteBuffer probe = ByteBuffer.wrap(WS_DISCOVERY_PROBE);
+            ByteBuffer buffer = ByteBuffer.allocate(WS_DISCOVERY_BUFFER_SIZE);
+            PrimitiveIterator.OfInt addresses = ips.iterator();
+            int ip = 0;
+            boolean pending = false;
+            long nextSend = System.nanoTime();
+            long end = addresses.hasNext() ? Long.MAX_VALUE : nextSend;
+
+            while (System.nanoTime() < end) {
+                // Send the next probe once its slot at the packet rate has come
+                if ((pending || addresses.hasNext()) && System.nanoTime() >= nextSend) {
+                    if (!pending) {
+                        ip = addresses.nextInt();
+                        pending = true;
+                    }
+                    if (send(channel, probe.rewind(), ip)) {
+                        pending = false;
+                        counter.increment();
+                        // Never catch up with a burst after falling behind
+                        nextSend = Math.max(nextSend + interval, System.nanoTime());
+                    } else {
+                        // Back off briefly until the socket buffer drains
+                        nextSend = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(1);
+                    }
+                    // Wait for late answers once the last probe is out
+                    if (!pending && !addresses.hasNext())
+                        end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(UNICAST_RESPONSE_WAIT);
+                }
+
+                long wait = (pending || addresses.hasNext() ? nextSend : end) - System.nanoTime();
+                if (wait > 0)
+                    selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait)));
+                else
+                    selector.selectNow();
+                selector.selectedKeys().clear();
+
+                // Drain every datagram that is ready on the channel
+                try {
+                    SocketAddress source;
+                    while ((source = channel.receive(buffer.clear())) != null)
+                        parseResponse(new DiscoveryResponse("unicast", source, buffer.flip()), messageIds, matches);
+                } catch (IOException e) {
+                    logger.debug("Error receiving unicast probe response: {}", e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Error in unicast WS-Discovery sweep:", e);
+        }
+
+        logger.info("Unicast WS-Discovery sweep of {} addresses found {} ProbeMatches.", counter.count(), matches.size());
+        return new ArrayList<>(matches.values());
+    }
+
+    // Send a probe to an address, returning false if the socket buffer is full and the send must be retried
+    private static boolean send(DatagramChannel channel, ByteBuffer probe, int ip) {
+        try {
+            return channel.send(probe, new InetSocketAddress(IpRange.toInetAddress(ip), WS_DISCOVERY_MULTICAST_PORT)) > 0;
+        } catch (IOException e) {
+            logger.debug("Error sending unicast probe to {}: {}", IpRange.toString(ip), e.getMessage());
+            return true;
+        }
+    }
+
+    private static void close(Channel channel) {
+        if (channel == null)
+            return;
+        try {
+            channel.close();
         } catch (IOException e) {
-            logger.error("Error with multicast socket on interface {}:", currentInterfaceName, e);
+            logger.debug("Error closing discovery channel: {}", e.getMessage());
         }
     }
 
     /**
-     * Parses a list of DatagramPacket objects to extract and process ONVIF device responses.
-     * This method processes each packet to identify ONVIF-compliant device addresses, adds
-     * the discovered devices to the data store, and logs the results.
+     * Parses a discovery response and keeps the ProbeMatches of endpoints not seen before.
+     * Responses repeated by a device, which carry the same MessageID, are skipped.
      *
-     * @param packets the list of DatagramPacket objects containing responses from ONVIF devices
+     * @param discoveryResponse the response received from an ONVIF device
+     * @param messageIds        the MessageIDs of the responses received so far
+     * @param matches           the matches received so far, keyed by their EndpointReference
+     * @return the number of new matches in the response
      */
-    private static void parseResponses(List<DatagramPacket> packets) {
-        int discoveredCount = 0;
+    private static int parseResponse(DiscoveryResponse discoveryResponse, Set<String> messageIds, Map<String, ProbeMatch> matches) {
+        ByteBuffer payload = discoveryResponse.payload();
+        // Skip empty packets
+        if (!payload.hasRemaining())
+            return 0;
 
-        for (DatagramPacket packet : packets) {
-            // Skip empty or null packets
-            if (packet == null || packet.getLength() == 0)
-                continue;
+        logger.debug("Processing {} byte ONVIF device response from {} on interface {}", payload.remaining(),
+                discoveryResponse.source(), discoveryResponse.interfaceName());
+        logger.trace("ONVIF device response: {}", () -> StandardCharsets.UTF_8.decode(payload.duplicate()));
 
-            // Convert packet data to a string for processing
-            String response = new String(packet.getData(), packet.getOffset(), packet.getLength());
-            logger.info("Processing ONVIF device response: {}", response);
+        try {
+            // Parse straight from the receive buffer
+            List<ProbeMatch> probeMatches = OnvifResponseParser.parseProbeMatches(payload.array(),
+                    payload.arrayOffset() + payload.position(), payload.remaining());
+            // Skip a response repeated by the device
+            if (!probeMatches.isEmpty() && probeMatches.getFirst().messageId() != null && !messageIds.add(probeMatches.getFirst().messageId()))
+                return 0;
 
-            try {
-                // Parse the ONVIF address from the response
-                String address = OnvifResponseParser.parseOnvifAddress(response);
-                if (address != null) {
-                    // Add the discovered CCTV device using the parsed address
-                    addDiscoveredCctv(new Cctv().withOnvifDeviceUrl(address));
-                    discoveredCount++;
-                } else {
-                    logger.error("Empty ONVIF device service address in response: {}", response);
-                }
-            } catch (DocumentException e) {
-                // Log an error if there is an issue parsing the response
-                logger.error("Error parsing ONVIF device service address in response: {} as: {}", response,
-                        e.getMessage());
+            int added = 0;
+            for (ProbeMatch match : probeMatches) {
+                if (matches.putIfAbsent(key(match), match) == null)
+                    added++;
+            }
+            return added;
+        } catch (XMLStreamException e) {
+            // Log an error if there is an issue parsing the response
+            logger.error("Error parsing ONVIF device response from {} as: {}", discoveryResponse.source(), e.getMessage());
+            return 0;
+        }
+    }
+
+    // Identify a match by its endpoint reference, or by its address when it has none
+    private static String key(ProbeMatch match) {
+        return match.endpointReference() != null ? match.endpointReference() : String.join(" ", match.xAddrs());
+    }
+
+    /**
+     * Adds the devices of the discovered ProbeMatches to the data store and logs the results.
+     *
+     * @param matches the de-duplicated matches received from ONVIF devices on all interfaces
+     */
+    private static void addDiscoveredCctvs(Collection<ProbeMatch> matches) {
+        int discoveredCount = 0;
+
+        for (ProbeMatch match : matches) {
+            String address = match.deviceServiceUrl();
+            if (address != null) {
+                // Add the discovered CCTV device using the parsed address
+                OnvifAnnouncementListener.remember(match);
+                addDiscoveredCctv(new Cctv().withOnvifDeviceUrl(address));
+                discoveredCount++;
+            } else {
+                logger.error("Empty ONVIF device service address for endpoint {}", match.endpointReference());
             }
         }
 
         // Log the total number of discovered ONVIF devices
         logger.info("Total discovered ONVIF devices count: {}/{}", DataStore.getDiscoveredCctvCount(), discoveredCount);
     }
+
+    /**
+     * A response to a discovery probe, tagged with the network interface it was received on.
+     *
+     * @param interfaceName the name of the network interface the response was received on
+     * @param source        the address of the device that sent the response
+     * @param payload       the payload of the response, valid only until the next receive into the same buffer
+     */
+    private record DiscoveryResponse(String interfaceName, SocketAddress source, ByteBuffer payload) {
+    }
 }
@@ -1,13 +1,24 @@
 package com.tcs.ion.icamera.cctv.onvif;
 
+import com.tcs.ion.icamera.cctv.data.CredentialRanking;
 import com.tcs.ion.icamera.cctv.data.DataStore;
+import com.tcs.ion.icamera.cctv.error.OnvifException;
 import com.tcs.ion.icamera.cctv.model.Cctv;
+import com.tcs.ion.icamera.cctv.util.Counter;
 import com.tcs.ion.icamera.cctv.util.Credential;
+import com.tcs.ion.icamera.cctv.util.Deadline;
+import com.tcs.ion.icamera.cctv.util.HttpSoapClient;
+import com.tcs.ion.icamera.cctv.util.ScanStage;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The OnvifEnquiry class provides utilities to interact with ONVIF-capable CCTV devices.
@@ -15,66 +26,154 @@ import java.util.List;
  * The main purpose of this class is to identify, authenticate, and collect information about
  * ONVIF-compliant CCTV devices.
  * <p>
+ * The calls made to a device with each credential share a time budget, as do the
+ * calls made before any credential is tried. The budget defaults to
+ * {@value #DEFAULT_ENQUIRY_BUDGET} milliseconds and can be configured with the
+ * {@code cctv.onvif.enquiry.budget} system property. Once a budget is spent, the
+ * remaining calls under it are not made and the device is reported with the expired
+ * deadline.
+ * <p>
+ * Devices are enquired concurrently on virtual threads, up to
+ * {@value #DEFAULT_ENQUIRY_WORKERS} at a time by default, which can be configured with
+ * the {@code cctv.onvif.enquiry.maxConcurrent} system property. Each device tries the
+ * credentials in turn until one of them works, and the progress of the enquiry is
+ * reported per device.
+ * <p>
  * This class operates as a utility class and cannot be instantiated.
  */
 public class OnvifEnquiry {
+    public static final int DEFAULT_ENQUIRY_BUDGET = 20000;
+    public static final int DEFAULT_ENQUIRY_WORKERS = 64;
+
     private static final Logger logger = LogManager.getLogger(OnvifEnquiry.class);
+    private static final int ENQUIRY_BUDGET = Integer.getInteger("cctv.onvif.enquiry.budget", DEFAULT_ENQUIRY_BUDGET);
+    private static final int ENQUIRY_WORKERS = Integer.getInteger("cctv.onvif.enquiry.maxConcurrent", DEFAULT_ENQUIRY_WORKERS);
+    // Credentials each device rejected during the session, by ONVIF URL of the device
+    private static final Map<String, Set<Credential>> rejectedCredentials = new ConcurrentHashMap<>();
+    private static volatile Counter counter;
 
     private OnvifEnquiry() {
     }
 
     /**
      * Attempts to authenticate and retrieve ONVIF details for identified CCTV devices
-     * using the provided credentials. The method iterates through all given credentials
-     * to match with devices from the datastore and processes only devices that are
-     * not yet identified as ONVIF-compliant.
+     * using the provided credentials. The method enquires the devices from the datastore
+     * that are not yet identified as ONVIF-compliant concurrently, trying the given
+     * credentials on each device in turn until one of them works.
      *
      * @param credentials an array of {@code Credential} objects that contain
      *                    username and password combinations to be used
      *                    for authenticating the CCTV devices.
      */
     public static void enquire(Credential... credentials) {
-        for (Credential credential : credentials) {
-            List<Cctv> cctvs = new ArrayList<>(DataStore.getRefuteOnvifCctvs());
-            cctvs.removeIf(cctv -> getOnvifDetails(cctv, credential));
+        List<Cctv> cctvs = DataStore.getRefuteOnvifCctvs();
+        Counter enquired = new Counter(cctvs.size());
+        counter = enquired;
+        logger.info("Enquiring {} ONVIF CCTVs with {} credentials.", cctvs.size(), credentials.length);
+        CredentialRanking.refreshArpTable();
+
+        try (ScanStage<Cctv> stage = new ScanStage<>("onvif-enquiry", ENQUIRY_WORKERS, ENQUIRY_WORKERS, cctv -> {
+            try {
+                getOnvifDetails(cctv, credentials);
+            } finally {
+                enquired.increment();
+            }
+        })) {
+            cctvs.forEach(stage::submit);
         }
+
+        logger.info("HTTP connection pool after enquiry: {}", HttpSoapClient.getPoolStats());
         DataStore.printIdentifiedCctvs();
     }
 
     /**
-     * Retrieves the ONVIF details of a CCTV device using the provided credentials. This method
-     * communicates with the ONVIF-compliant CCTV device to gather its capabilities, system
-     * date and time, profiles, and device information. If successful, it logs the success
-     * and returns true; otherwise, it logs the error, clears the credentials, and returns false.
+     * Retrieves the ONVIF details of a CCTV device, trying the provided credentials in turn.
+     * This method communicates with the ONVIF-compliant CCTV device to gather its capabilities,
+     * system date and time, profiles, and device information. If successful, it logs the
+     * success and returns true; otherwise, it logs the error, clears the credentials, and
+     * returns false. The calls made before any credential is tried share a time budget, and
+     * each credential has a budget of its own for its calls, so a slow credential does not
+     * leave the next one without time. The first call made after a budget is spent fails.
+     * <p>
+     * The capabilities and the system date and time need no credential, so they are
+     * requested once, at the same time, and provide the service URLs and the clock for the
+     * security header. A camera that asks for HTTP authentication on every call rejects
+     * them, and they are then requested again with each credential before its other
+     * calls, a rejection counting against the credential. Each credential is then checked with a single authenticated
+     * GetDeviceInformation call, and only the credential that passes is used for the
+     * profiles and the stream URIs of all the profiles. When a single credential is left
+     * to try there is nothing to choose, so its device information and profiles are
+     * requested at the same time.
+     * <p>
+     * The credentials are tried in the order {@link CredentialRanking} expects them to work
+     * in. A credential the device rejects is remembered for the session and is not tried on
+     * the device again.
      *
      * @param cctv the {@code Cctv} object representing the CCTV device whose ONVIF details
      *             are to be retrieved.
-     * @param credential the {@code Credential} object containing the username and password
-     *                   required to authenticate the CCTV device.
+     * @param credentials the {@code Credential} objects containing the username and password
+     *                    combinations to try on the CCTV device.
      * @return {@code true} if the ONVIF details were successfully retrieved, or {@code false}
      *         if an error occurred during the process.
      */
-    public static boolean getOnvifDetails(Cctv cctv, Credential credential) {
+    public static boolean getOnvifDetails(Cctv cctv, Credential... credentials) {
+        Set<Credential> rejected = rejectedCredentials.computeIfAbsent(cctv.getOnvifUrl(), url -> ConcurrentHashMap.newKeySet());
+        List<Credential> candidates = Arrays.stream(CredentialRanking.rank(cctv, credentials)).distinct().filter(c -> !rejected.contains(c)).toList();
         try {
             cctv.clearErrors();
-            cctv.setUsername(credential.getUsername());
-            cctv.setPassword(credential.getPassword());
 
-            OnvifCapabilities.get(cctv);
+            if (candidates.isEmpty())
+                throw new OnvifException("All " + credentials.length + " credentials were rejected earlier in this session");
+
+            cctv.clearCredential();
+            Deadline unauthenticated = Deadline.after(ENQUIRY_BUDGET);
+            CompletableFuture<Void> capabilities = OnvifCapabilities.getAsync(cctv, unauthenticated);
+            CompletableFuture<Void> dateAndTime = OnvifSystemDateAndTime.getAsync(cctv, unauthenticated);
+            // Cameras that ask for HTTP authentication on every call answer these with a 401, so ask them again with each credential
+            boolean capabilitiesNeedCredential = needsCredential(capabilities);
+            boolean dateAndTimeNeedsCredential = needsCredential(dateAndTime);
 
-            OnvifSystemDateAndTime.get(cctv);
+            for (Credential credential : candidates) {
+                Deadline deadline = Deadline.after(ENQUIRY_BUDGET);
+                cctv.setUsername(credential.getUsername());
+                cctv.setPassword(credential.getPassword());
 
-            OnvifProfiles.get(cctv);
+                CompletableFuture<Void> unauthenticatedCalls = CompletableFuture.allOf(
+                        capabilitiesNeedCredential ? OnvifCapabilities.getAsync(cctv, deadline) : capabilities,
+                        dateAndTimeNeedsCredential ? OnvifSystemDateAndTime.getAsync(cctv, deadline) : dateAndTime);
+                CompletableFuture<Void> details = unauthenticatedCalls.thenCompose(done -> candidates.size() == 1
+                        ? CompletableFuture.allOf(OnvifDeviceInformation.getAsync(cctv, deadline), OnvifProfiles.getAsync(cctv, deadline))
+                        : OnvifDeviceInformation.getAsync(cctv, deadline).thenCompose(ignored -> OnvifProfiles.getAsync(cctv, deadline)));
+                try {
+                    details.join();
+                } catch (CompletionException e) {
+                    if (!isNotAuthorized(e))
+                        throw e;
 
-            OnvifDeviceInformation.get(cctv);
+                    // Remember the rejection and move on to the next credential
+                    rejected.add(credential);
+                    cctv.addError(unwrap(e));
+                    logger.info("Credential {} rejected by {}", credential.getUsername(), cctv.getOnvifUrl());
+                    continue;
+                }
 
-            cctv.removeOnvifUrl();
+                cctv.clearErrors();
+                cctv.removeOnvifUrl();
+                CredentialRanking.recordSuccess(cctv, credential);
 
-            logger.info("SUCCESS GETTING ONVIF DETAILS FOR {}", cctv);
+                logger.info("SUCCESS GETTING ONVIF DETAILS FOR {}", cctv);
 
-            return true;
+                return true;
+            }
+
+            cctv.clearCredential();
+
+            logger.error("ERROR GETTING ONVIF DETAILS FOR {} as no credential was accepted", cctv);
+
+            return false;
         } catch (Exception e) {
-            cctv.addError(e);
+            // Record the failed call rather than the wrapper of the asynchronous sequence
+            cctv.addError(unwrap(e));
 
             cctv.clearCredential();
 
@@ -83,4 +182,77 @@ public class OnvifEnquiry {
             return false;
         }
     }
+
+    /**
+     * Waits for a call made without a credential and checks whether the device asked for
+     * one, in which case the call is to be made again with each credential.
+     *
+     * @param call the call made without a credential
+     * @return {@code true} if the device rejected the call as not authorized, {@code false} if it succeeded
+     * @throws CompletionException if the call failed for any other reason
+     */
+    private static boolean needsCredential(CompletableFuture<Void> call) {
+        try {
+            call.join();
+            return false;
+        } catch (CompletionException e) {
+            if (!isNotAuthorized(e))
+                throw e;
+            return true;
+        }
+    }
+
+    private static Exception unwrap(Exception e) {
+        return e instanceof CompletionException && e.getCause() instanceof Exception cause ? cause : e;
+    }
+
+    // Check whether the device rejected the credential, as opposed to failing for any other reason
+    private static boolean isNotAuthorized(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            String message = cause.getMessage();
+            if (message != null && (message.contains("NotAuthorized") || message.contains("FailedAuthentication")))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Retrieves the progress of the current enquiry as a percentage of the devices enquired.
+     *
+     * @return the progress of the enquiry, or 0 if no enquiry has started
+     */
+    public static int getProgress() {
+        Counter enquired = counter;
+        return enquired == null ? 0 : enquired.getPercentage();
+    }
+
+    /**
+     * Checks whether every device of the current enquiry has been enquired.
+     *
+     * @return {@code true} if an enquiry has started and is complete, {@code false} otherwise
+     */
+    public static boolean isComplete() {
+        Counter enquired = counter;
+        return enquired != null && enquired.isComplete();
+    }
+
+    /**
+     * Retrieves the number of devices of the current enquiry.
+     *
+     * @return the number of devices to enquire, or 0 if no enquiry has started
+     */
+    public static int getTotalCount() {
+        Counter enquired = counter;
+        return enquired == null ? 0 : enquired.total();
+    }
+
+    /**
+     * Retrieves the number of devices enquired so far, whether successfully or not.
+     *
+     * @return the number of devices enquired, or 0 if no enquiry has started
+     */
+    public static int getCount() {
+        Counter enquired = counter;
+        return enquired == null ? 0 : enquired.count();
+    }
 }
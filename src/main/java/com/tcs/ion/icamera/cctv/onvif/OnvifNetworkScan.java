@@ -1,15 +1,25 @@
 package com.tcs.ion.icamera.cctv.onvif;
 
 import com.tcs.ion.icamera.cctv.data.DataStore;
+import com.tcs.ion.icamera.cctv.data.NonOnvifCache;
+import com.tcs.ion.icamera.cctv.error.OnvifException;
 import com.tcs.ion.icamera.cctv.model.Cctv;
+import com.tcs.ion.icamera.cctv.util.Counter;
 import com.tcs.ion.icamera.cctv.util.HttpSoapClient;
+import com.tcs.ion.icamera.cctv.util.IpSet;
 import com.tcs.ion.icamera.cctv.util.Network;
 import com.tcs.ion.icamera.cctv.util.NetworkScan;
+import com.tcs.ion.icamera.cctv.util.ScanStage;
+import com.tcs.ion.icamera.cctv.util.UrlParser;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.http.HttpEntity;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
 
 import static com.tcs.ion.icamera.cctv.util.UrlParser.getOnvifDeviceServiceUrl;
 
@@ -29,6 +39,12 @@ import static com.tcs.ion.icamera.cctv.util.UrlParser.getOnvifDeviceServiceUrl;
  * - Querying devices on known ONVIF ports.
  * - Validating ONVIF capability by sending SOAP requests and inspecting responses.
  * <p>
+ * Endpoints that answer with something other than ONVIF, such as the admin page of a
+ * router or printer, are remembered in the {@link NonOnvifCache} and skipped by later scans.
+ * <p>
+ * Alternatively, in {@link Mode#WS_DISCOVERY} mode, a unicast WS-Discovery probe is sent
+ * to every IP, which reaches routed subnets where multicast discovery is blocked.
+ * <p>
  * This class supports progress tracking for the current network scan process.
  * <p>
  * Note: This class cannot be instantiated.
@@ -39,12 +55,59 @@ public class OnvifNetworkScan {
     // Timeout for ONVIF port scans
     public static final int ONVIF_PORT_SCAN_TIMEOUT = 1000;
 
+    // Timeout for the ONVIF compatibility check of each possible device
+    public static final int ONVIF_VERIFICATION_TIMEOUT = 2000;
+    // Most bytes of a response read to tell whether it came from an ONVIF device
+    private static final int FINGERPRINT_MAX_BYTES = Integer.getInteger("cctv.onvif.verify.maxBytes", 8192);
+
+    // Capacity of the queue between the port sweep and the ONVIF verification
+    private static final int VERIFICATION_QUEUE_CAPACITY = 256;
+    // Number of possible ONVIF devices verified concurrently across all hosts
+    private static final int VERIFICATION_WORKERS = Integer.getInteger("cctv.onvif.verify.maxConcurrent", 32);
+    // Number of possible ONVIF devices verified concurrently on the same host
+    private static final int VERIFICATIONS_PER_HOST = Integer.getInteger("cctv.onvif.verify.maxPerHost", 2);
+    private static final Map<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+
     private static final Logger logger = LogManager.getLogger(OnvifNetworkScan.class);
     private static NetworkScan scanner;
+    private static Counter probes;
+    private static volatile ScanStage<String> verification;
+    private static volatile boolean complete;
+    private static NetworkScan.Engine engine = NetworkScan.Engine.DEFAULT;
+    private static Mode mode = Mode.parse(System.getProperty("cctv.onvif.scan.mode", Mode.PORT_SCAN.name()));
+    private static int probeRate = Integer.getInteger("cctv.onvif.scan.probeRate", 500);
 
     private OnvifNetworkScan() {
     }
 
+    /**
+     * Selects the connect engine used for subsequent ONVIF port sweeps.
+     *
+     * @param engine the {@link NetworkScan.Engine} to sweep the ONVIF ports with
+     */
+    public static void setEngine(NetworkScan.Engine engine) {
+        OnvifNetworkScan.engine = engine;
+    }
+
+    /**
+     * Selects how subsequent scans look for ONVIF devices.
+     *
+     * @param mode the {@link Mode} of subsequent scans
+     */
+    public static void setMode(Mode mode) {
+        OnvifNetworkScan.mode = mode;
+    }
+
+    /**
+     * Sets the maximum number of unicast WS-Discovery probes sent per second in
+     * {@link Mode#WS_DISCOVERY} mode.
+     *
+     * @param probeRate the maximum number of probes per second
+     */
+    public static void setProbeRate(int probeRate) {
+        OnvifNetworkScan.probeRate = probeRate;
+    }
+
     /**
      * Initiates a network scan to discover ONVIF-compatible devices.
      * <p>
@@ -71,74 +134,150 @@ public class OnvifNetworkScan {
     }
 
     /**
-     * Scans a set of provided IP addresses to identify ONVIF-compatible devices.
-     * <p>
-     * This method iterates through the given IP addresses, attempting to detect
-     * ONVIF devices by checking their compatibility. Discovered devices are added
-     * to the application's data store for further processing.
+     * Scans a set of provided IP addresses to identify ONVIF-compatible devices in the
+     * selected mode.
      *
      * @param ips the set of IP addresses to scan for ONVIF-compatible devices
      */
-    private static void scan(Set<String> ips) {
-        logger.info("Scanning IPs {}", ips);
-        getLatentOnvifUrls(ips).forEach(onvifUrl -> {
-            if (checkPossibleOnvifDevice(onvifUrl)) {
-                DataStore.addScannedCctv(new Cctv().withOnvifDeviceUrl(onvifUrl));
+    private static void scan(IpSet ips) {
+        logger.info("Scanning IPs {} by {}", ips, mode);
+        complete = false;
+
+        try {
+            switch (mode) {
+                case PORT_SCAN -> portScan(ips);
+                case WS_DISCOVERY -> probe(ips);
             }
-        });
+        } finally {
+            complete = true;
+        }
 
         logger.info("Discovered {} ONVIF devices by network scan.", DataStore.getScannedCctvCount());
     }
 
     /**
-     * Scans a set of IP addresses to discover potential ONVIF-compatible URLs.
+     * Sends a unicast WS-Discovery probe to every address and adds the devices that
+     * answer to the application's data store. The devices return their own device
+     * service address, so no compatibility check is needed.
+     *
+     * @param ips the set of IP addresses to probe
+     */
+    private static void probe(IpSet ips) {
+        scanner = null;
+        probes = new Counter((int) Math.min(Integer.MAX_VALUE, ips.size()));
+
+        for (ProbeMatch match : OnvifDiscovery.probe(ips, probeRate, probes)) {
+            String onvifUrl = match.deviceServiceUrl();
+            if (onvifUrl != null)
+                DataStore.addScannedCctv(new Cctv().withOnvifDeviceUrl(onvifUrl));
+        }
+    }
+
+    /**
+     * Scans a set of provided IP addresses on the ONVIF ports to identify ONVIF-compatible devices.
      * <p>
-     * This method performs a network scan over the provided IPs and predefined ONVIF ports.
-     * For each reachable IP and port, it constructs a possible ONVIF device service
-     * URL and adds it to the resultant set.
+     * Every reachable IP and ONVIF port is handed to a verification stage as soon as
+     * the port sweep connects to it, so ONVIF compatibility is checked while the sweep
+     * is still running. Confirmed devices are added to the application's data store
+     * as they are found.
      *
-     * @param ips the set of IP addresses to be scanned for ONVIF-compatible devices
-     * @return a set of discovered ONVIF device service URLs
+     * @param ips the set of IP addresses to scan for ONVIF-compatible devices
      */
-    private static Set<String> getLatentOnvifUrls(Set<String> ips) {
-        Set<String> onvifUrls = new HashSet<>();
+    private static void portScan(IpSet ips) {
+        hostPermits.clear();
+        probes = null;
         scanner = new NetworkScan(
                 // For all possible IP addresses of all network interfaces
                 ips,
                 // For all possible ONVIF ports
-                ONVIF_PORTS);
+                ONVIF_PORTS,
+                // With the selected connect engine
+                engine);
 
-        scanner.scan(ONVIF_PORT_SCAN_TIMEOUT)
-                // For each reachable IP address and port
-                .forEach((ip, ports) -> ports.forEach(port ->
-                        // Add discovered ONVIF devices to the latent CCTV list
-                        onvifUrls.add(getOnvifDeviceServiceUrl(ip, port))));
+        try (ScanStage<String> stage = new ScanStage<>("onvif-verify", VERIFICATION_QUEUE_CAPACITY, VERIFICATION_WORKERS, OnvifNetworkScan::verify)) {
+            verification = stage;
+            scanner.scan(ONVIF_PORT_SCAN_TIMEOUT,
+                    // Verify each reachable IP address and port as a possible ONVIF device, unless known not to be one
+                    (ip, port) -> {
+                        if (!NonOnvifCache.contains(ip, port))
+                            stage.submit(getOnvifDeviceServiceUrl(ip, port));
+                    });
+            logger.info("Port sweep complete, verifying {} possible ONVIF devices.", stage.getSubmitted() - stage.getCompleted());
+        } finally {
+            NonOnvifCache.save();
+        }
+        logger.info("Skipped {} endpoints known not to be ONVIF devices so far.", NonOnvifCache.getSkippedCount());
+        logger.info("HTTP connection pool after verification: {}", HttpSoapClient.getPoolStats());
+    }
 
-        logger.info("Discovered {} possible devices ONVIF devices.", onvifUrls.size());
-        logger.info(onvifUrls);
-        return onvifUrls;
+    // Add the URL to the data store if it belongs to an ONVIF device, limiting the checks running on its host
+    private static void verify(String onvifUrl) {
+        Semaphore permits = hostPermits.computeIfAbsent(getHost(onvifUrl), host -> new Semaphore(VERIFICATIONS_PER_HOST));
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            logger.error("Interrupted while waiting to verify {}", onvifUrl);
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        try {
+            switch (checkPossibleOnvifDevice(onvifUrl)) {
+                case ONVIF -> DataStore.addScannedCctv(new Cctv().withOnvifDeviceUrl(onvifUrl));
+                case NOT_ONVIF -> rememberNonOnvif(onvifUrl);
+                case UNKNOWN -> {
+                }
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    private static void rememberNonOnvif(String onvifUrl) {
+        try {
+            NonOnvifCache.add(UrlParser.getHostname(onvifUrl), UrlParser.getPort(onvifUrl));
+        } catch (OnvifException e) {
+            logger.debug("Not caching {} as non-ONVIF: {}", onvifUrl, e.getMessage());
+        }
+    }
+
+    private static String getHost(String onvifUrl) {
+        try {
+            return UrlParser.getHostname(onvifUrl);
+        } catch (OnvifException e) {
+            return onvifUrl;
+        }
     }
 
     /**
      * Checks if the provided URL corresponds to an ONVIF-compatible device.
      * <p>
      * This method sends a SOAP XML request to the given URL to verify if the target
-     * device responds in a manner that adheres to the ONVIF protocol. If the device
-     * is ONVIF-compliant, the method returns true; otherwise, it returns false.
-     * Exceptions during the process are logged, and false is returned in case of errors.
+     * device responds in a manner that adheres to the ONVIF protocol. Only the first
+     * bytes of the response are read, up to {@code cctv.onvif.verify.maxBytes}, and
+     * reading stops as soon as the verdict is clear. Exceptions during the process are
+     * logged, and no verdict is returned in case of errors.
      *
      * @param onvifUrl The URL of the device to be checked for ONVIF compatibility.
-     * @return {@code true} if the device is ONVIF-compliant, {@code false} otherwise.
+     * @return the {@link Fingerprint} of the device
      */
-    private static boolean checkPossibleOnvifDevice(String onvifUrl) {
+    private static Fingerprint checkPossibleOnvifDevice(String onvifUrl) {
         try {
-            // Make the request to the ONVIF device
-            String response = HttpSoapClient.postXml(onvifUrl, OnvifSoapMessages.ONVIF_COMPATIBILITY);
-            // Parse the response to check if the device is an ONVIF compliant device
-            return OnvifResponseParser.isOnvifDevice(response);
+            // Make the request to the ONVIF device and check the start of the response as it arrives
+            return HttpSoapClient.postXml(onvifUrl, OnvifSoapMessages.ONVIF_COMPATIBILITY, ONVIF_VERIFICATION_TIMEOUT, response -> {
+                HttpEntity entity = response.getEntity();
+                if (entity == null)
+                    return Fingerprint.NOT_ONVIF;
+
+                // Never closed, as closing the content of a response reads it to the end
+                return OnvifResponseParser.fingerprint(BoundedInputStream.builder()
+                        .setInputStream(entity.getContent())
+                        .setMaxCount(FINGERPRINT_MAX_BYTES)
+                        .get());
+            });
         } catch (Exception e) {
-            logger.info("Error checking ONVIF compatibility for {}", onvifUrl, e);
-            return false;
+            logger.info("Error checking ONVIF compatibility for {}: {}", onvifUrl, e.getMessage());
+            return Fingerprint.UNKNOWN;
         }
     }
 
@@ -150,20 +289,20 @@ public class OnvifNetworkScan {
      * @return the progress of the ONVIF network scan as an integer percentage, or 0 if the scanner is null.
      */
     public static int getProgress() {
-        return scanner == null ? 0 : scanner.getProgress();
+        return probes != null ? probes.getPercentage() : scanner == null ? 0 : scanner.getProgress();
     }
 
     /**
      * Checks whether the ONVIF network scan process has been completed.
      * <p>
-     * This method verifies the state of the internal scanner. If the scanner is initialized and its
-     * own progress indicates completion, the method returns true. Otherwise, it returns false.
+     * The scan is complete once the port sweep has finished and every possible ONVIF
+     * device it found has been verified.
      *
      * @return {@code true} if the scanner is initialized and the scan process is complete;
      *         {@code false} otherwise.
      */
     public static boolean isComplete() {
-        return scanner != null && scanner.isComplete();
+        return (scanner != null || probes != null) && complete;
     }
 
     /**
@@ -174,7 +313,7 @@ public class OnvifNetworkScan {
      *         or 0 if the scanner is null.
      */
     public static int getTotalCount() {
-        return scanner == null ? 0 : scanner.getTotalCount();
+        return probes != null ? probes.total() : scanner == null ? 0 : scanner.getTotalCount();
     }
 
     /**
@@ -185,6 +324,66 @@ public class OnvifNetworkScan {
      *         or 0 if the scanner is null.
      */
     public static int getCount() {
-        return scanner == null ? 0 : scanner.getCount();
+        return probes != null ? probes.count() : scanner == null ? 0 : scanner.getCount();
+    }
+
+    /**
+     * Checks whether the port sweep has finished and the possible ONVIF devices it
+     * found are still being verified.
+     *
+     * @return {@code true} if the sweep is complete and verification is in progress, {@code false} otherwise
+     */
+    public static boolean isVerifying() {
+        return scanner != null && scanner.isComplete() && !complete;
+    }
+
+    /**
+     * Retrieves the number of possible ONVIF devices handed to verification by the current scan.
+     *
+     * @return the number of verification candidates, or 0 if no scan has started
+     */
+    public static int getVerificationTotalCount() {
+        ScanStage<String> stage = verification;
+        return stage == null ? 0 : stage.getSubmitted();
+    }
+
+    /**
+     * Retrieves the number of possible ONVIF devices verified so far by the current scan.
+     *
+     * @return the number of verified candidates, or 0 if no scan has started
+     */
+    public static int getVerificationCount() {
+        ScanStage<String> stage = verification;
+        return stage == null ? 0 : stage.getCompleted();
+    }
+
+    /**
+     * Retrieves the progress of the verification of possible ONVIF devices as a percentage.
+     *
+     * @return the verification progress as an integer percentage, or 0 if there is nothing to verify
+     */
+    public static int getVerificationProgress() {
+        int total = getVerificationTotalCount();
+        return total == 0 ? 0 : getVerificationCount() * 100 / total;
+    }
+
+    /**
+     * The ways a network scan can look for ONVIF devices.
+     */
+    public enum Mode {
+        // Connect to the common ONVIF ports and check each open port for an ONVIF device service
+        PORT_SCAN,
+        // Send a unicast WS-Discovery probe to every address at a controlled packet rate
+        WS_DISCOVERY;
+
+        // Read the mode leniently, as a mistyped property must not break every scan
+        private static Mode parse(String name) {
+            try {
+                return valueOf(name.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                logger.warn("Unknown ONVIF scan mode {}, using {}.", name, PORT_SCAN);
+                return PORT_SCAN;
+            }
+        }
     }
 }
@@ -3,10 +3,14 @@ package com.tcs.ion.icamera.cctv.onvif;
 import com.tcs.ion.icamera.cctv.error.OnvifException;
 import com.tcs.ion.icamera.cctv.model.Cctv;
 import com.tcs.ion.icamera.cctv.model.Profile;
+import com.tcs.ion.icamera.cctv.util.Deadline;
 import com.tcs.ion.icamera.cctv.util.HttpSoapClient;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
 import static com.tcs.ion.icamera.cctv.onvif.OnvifSoapMessages.ONVIF_GET_PROFILES;
 import static com.tcs.ion.icamera.cctv.onvif.OnvifSoapMessages.ONVIF_GET_STREAM_URI;
 
@@ -45,9 +49,10 @@ public class OnvifProfiles {
      * Updates the provided Cctv object with the retrieved profile and URI data.
      *
      * @param cctv The Cctv object representing the CCTV device to retrieve profiles and stream URIs for.
+     * @param deadline the deadline shared by the calls of the enquiry
      * @throws OnvifException if an error occurs while communicating with the CCTV device or processing responses.
      */
-    public static void get(Cctv cctv) throws OnvifException {
+    public static void get(Cctv cctv, Deadline deadline) throws OnvifException {
         try {
             // Get the profiles from the media URL
             String profileXml = String.format(ONVIF_GET_PROFILES, cctv.onvifInfo().header());
@@ -55,7 +60,7 @@ public class OnvifProfiles {
 
             // Parse the response and store the profiles in the Cctv object
             cctv.setProfiles(
-                    OnvifResponseParser.parseProfiles(HttpSoapClient.postXml(cctv.onvifInfo().mediaUrl(), profileXml)));
+                    OnvifResponseParser.parseProfiles(HttpSoapClient.postXml(cctv.onvifInfo().mediaUrl(), profileXml, deadline, cctv.getCredential())));
 
             // Get the stream URI for each profile
             for (Profile profile : cctv.getProfiles()) {
@@ -64,7 +69,7 @@ public class OnvifProfiles {
 
                 // Parse the response and store the stream URI in the profile
                 profile.setStreamUri(OnvifResponseParser
-                        .parseStreamUri(HttpSoapClient.postXml(cctv.onvifInfo().mediaUrl(), streamXml)));
+                        .parseStreamUri(HttpSoapClient.postXml(cctv.onvifInfo().mediaUrl(), streamXml, deadline, cctv.getCredential())));
 
                 cctv.setIpPort(profile.streamUri());
             }
@@ -73,4 +78,70 @@ public class OnvifProfiles {
             throw new OnvifException(e);
         }
     }
+
+    /**
+     * Asynchronously fetches ONVIF profiles and their corresponding stream URIs for the
+     * specified CCTV device, updating the provided Cctv object as the responses arrive.
+     * The stream URIs of all the profiles are requested at the same time once the
+     * profiles are known.
+     *
+     * @param cctv The Cctv object representing the CCTV device to retrieve profiles and stream URIs for.
+     * @param deadline the deadline shared by the calls of the enquiry
+     * @return a future completed once every stream URI is set, or exceptionally with an
+     * {@link OnvifException} if an error occurs while communicating with the CCTV device or processing responses.
+     */
+    public static CompletableFuture<Void> getAsync(Cctv cctv, Deadline deadline) {
+        CompletableFuture<Void> future;
+        try {
+            String profileXml = String.format(ONVIF_GET_PROFILES, cctv.onvifInfo().header());
+            logger.info("Getting profiles from {} with: \n{}", cctv.onvifInfo().mediaUrl(), profileXml);
+
+            future = HttpSoapClient.postXmlAsync(cctv.onvifInfo().mediaUrl(), profileXml, deadline, cctv.getCredential())
+                    .thenAccept(response -> {
+                        try {
+                            cctv.setProfiles(OnvifResponseParser.parseProfiles(response));
+                        } catch (Exception e) {
+                            throw new CompletionException(new OnvifException(e));
+                        }
+                    })
+                    // Get the stream URIs of all the profiles at the same time
+                    .thenCompose(ignored -> CompletableFuture.allOf(cctv.getProfiles().stream()
+                            .map(profile -> getStreamUriAsync(cctv, profile, deadline))
+                            .toArray(CompletableFuture[]::new)))
+                    // Set the IP from the stream URIs once they are all known, as the blocking variant does
+                    .thenRun(() -> {
+                        try {
+                            for (Profile profile : cctv.getProfiles())
+                                cctv.setIpPort(profile.streamUri());
+                        } catch (OnvifException e) {
+                            throw new CompletionException(e);
+                        }
+                    });
+        } catch (Exception e) {
+            future = CompletableFuture.failedFuture(new OnvifException(e));
+        }
+
+        return future.whenComplete((ignored, e) -> {
+            if (e != null)
+                logger.error("Error getting profiles for {} as {}", cctv, e.getMessage());
+        });
+    }
+
+    private static CompletableFuture<Void> getStreamUriAsync(Cctv cctv, Profile profile, Deadline deadline) {
+        try {
+            String streamXml = String.format(ONVIF_GET_STREAM_URI, cctv.onvifInfo().header(), profile.token());
+            logger.info("Getting stream URI from {} for {} with \n{}", cctv.onvifInfo().mediaUrl(), profile.name(), streamXml);
+
+            return HttpSoapClient.postXmlAsync(cctv.onvifInfo().mediaUrl(), streamXml, deadline, cctv.getCredential())
+                    .thenAccept(response -> {
+                        try {
+                            profile.setStreamUri(OnvifResponseParser.parseStreamUri(response));
+                        } catch (Exception e) {
+                            throw new CompletionException(new OnvifException(e));
+                        }
+                    });
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(new OnvifException(e));
+        }
+    }
 }
@@ -4,55 +4,157 @@ import com.tcs.ion.icamera.cctv.error.OnvifException;
 import com.tcs.ion.icamera.cctv.model.Profile;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.dom4j.DocumentException;
-import org.dom4j.DocumentHelper;
-import org.dom4j.Element;
 
-import java.net.URI;
-import java.net.URISyntaxException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
 
 public class OnvifResponseParser {
     private static final Logger logger = LogManager.getLogger(OnvifResponseParser.class);
+    private static final Set<String> WS_DISCOVERY_NAMESPACES = Set.of(
+            "http://schemas.xmlsoap.org/ws/2005/04/discovery",
+            "http://docs.oasis-open.org/ws-dd/ns/discovery/2009/01");
+    private static final Set<String> WS_ADDRESSING_NAMESPACES = Set.of(
+            "http://schemas.xmlsoap.org/ws/2004/08/addressing",
+            "http://www.w3.org/2005/08/addressing");
+    // Paths of local names from the Envelope to the elements read from SOAP responses
+    private static final String BODY = "Envelope/Body";
+    private static final String FAULT = BODY + "/Fault";
+    private static final String CAPABILITIES = BODY + "/GetCapabilitiesResponse/Capabilities";
+    private static final String UTC_DATE_TIME = BODY + "/GetSystemDateAndTimeResponse/SystemDateAndTime/UTCDateTime";
+    private static final List<String> DATE_TIME_FIELDS = List.of(
+            "Date/Year", "Date/Month", "Date/Day", "Time/Hour", "Time/Minute", "Time/Second");
+    private static final String PROFILES = BODY + "/GetProfilesResponse/Profiles";
+    private static final String STREAM_URI = BODY + "/GetStreamUriResponse/MediaUri/Uri";
+    private static final String DEVICE_INFORMATION = BODY + "/GetDeviceInformationResponse";
+    private static final XMLInputFactory xmlInputFactory = XMLInputFactory.newFactory();
+
+    static {
+        // Responses come from the network, so never resolve DTDs or external entities
+        xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        xmlInputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+    }
 
     private OnvifResponseParser() {
     }
 
     /**
-     * Extracts the first "normal" hostname-based URL from the response.
-     * <p>
-     * Some devices may respond with multiple URLs, such as a hostname and a
-     * link-local address. This method will extract the first URL that has a valid
-     * hostname and not a IPv6 address.
+     * Parses every ProbeMatch of a WS-Discovery ProbeMatches response straight from
+     * the payload of the datagram it was received in.
      *
-     * @param xml the response from the ONVIF device
-     * @return the first hostname-based URL from the response
-     * @throws DocumentException if the XML cannot be parsed
+     * @param data   the buffer holding the response
+     * @param offset the offset of the response in the buffer
+     * @param length the length of the response
+     * @return the matches of the response, in document order
+     * @throws XMLStreamException if the XML cannot be parsed
      */
-    public static String parseOnvifAddress(String xml) throws DocumentException {
-        /*
-         * Example: 1. <d:XAddrs>http://172.16.0.27/onvif/device_service
-         * http://[fe80::26b1:5ff:fe39:8d91]/onvif/device_service</d:XAddrs> 2.
-         * <d:XAddrs>http://192.168.0.113:8000/onvif/device_service</d:XAddrs>
-         */
-        String[] urls = DocumentHelper.parseText(xml).getRootElement().element("Body").element("ProbeMatches")
-                .element("ProbeMatch").element("XAddrs").getTextTrim().split("\\s+");
-
-        for (String url : urls) {
-            try {
-                URI uri = new URI(url);
-                if (uri.getHost() != null && !uri.getHost().contains(":")) {
-                    return url;
+    public static List<ProbeMatch> parseProbeMatches(byte[] data, int offset, int length) throws XMLStreamException {
+        return parseDiscoveryMessage(data, offset, length).stream()
+                .filter(endpoint -> endpoint.kind().equals("ProbeMatch"))
+                .map(DiscoveryEndpoint::endpoint)
+                .toList();
+    }
+
+    /**
+     * Parses a WS-Discovery Hello or Bye announcement multicast by a device joining or
+     * leaving the network, straight from the payload of the datagram it was received in.
+     *
+     * @param data   the buffer holding the announcement
+     * @param offset the offset of the announcement in the buffer
+     * @param length the length of the announcement
+     * @return the announcement, or null if the message is neither a Hello nor a Bye
+     * @throws XMLStreamException if the XML cannot be parsed
+     */
+    public static Announcement parseAnnouncement(byte[] data, int offset, int length) throws XMLStreamException {
+        for (DiscoveryEndpoint endpoint : parseDiscoveryMessage(data, offset, length)) {
+            switch (endpoint.kind()) {
+                case "Hello" -> {
+                    return new Announcement(Announcement.Type.HELLO, endpoint.endpoint());
+                }
+                case "Bye" -> {
+                    return new Announcement(Announcement.Type.BYE, endpoint.endpoint());
+                }
+                default -> {
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the endpoints of the ProbeMatch, Hello and Bye elements of a WS-Discovery
+     * message in a single streaming pass, without building a document tree. Elements are
+     * matched by their namespace, so any prefix and both the 2005/04 and 2009/01 versions
+     * of WS-Discovery are understood.
+     */
+    private static List<DiscoveryEndpoint> parseDiscoveryMessage(byte[] data, int offset, int length) throws XMLStreamException {
+        XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(new ByteArrayInputStream(data, offset, length));
+        List<DiscoveryEndpoint> endpoints = new ArrayList<>();
+        String messageId = null;
+        String kind = null;
+        String address = null;
+        String types = null;
+        String scopes = null;
+        String xAddrs = null;
+
+        try {
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String namespace = reader.getNamespaceURI();
+                    String name = reader.getLocalName();
+
+                    if (WS_ADDRESSING_NAMESPACES.contains(namespace)) {
+                        if (kind == null && name.equals("MessageID"))
+                            messageId = reader.getElementText().trim();
+                        else if (kind != null && name.equals("Address"))
+                            address = reader.getElementText().trim();
+                    } else if (WS_DISCOVERY_NAMESPACES.contains(namespace)) {
+                        switch (name) {
+                            case "ProbeMatch", "Hello", "Bye" -> {
+                                kind = name;
+                                address = types = scopes = xAddrs = null;
+                            }
+                            case "Types" -> types = kind == null ? null : reader.getElementText();
+                            case "Scopes" -> scopes = kind == null ? null : reader.getElementText();
+                            case "XAddrs" -> xAddrs = kind == null ? null : reader.getElementText();
+                            default -> {
+                            }
+                        }
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT && kind != null && kind.equals(reader.getLocalName())
+                        && WS_DISCOVERY_NAMESPACES.contains(reader.getNamespaceURI())) {
+                    endpoints.add(new DiscoveryEndpoint(kind, new ProbeMatch(messageId, address, splitList(types),
+                            splitList(scopes), splitList(xAddrs))));
+                    kind = null;
                 }
-            } catch (URISyntaxException e) {
-                logger.warn("Error extracting hostname from URL {} as: {}", url, e.getMessage());
             }
+        } finally {
+            reader.close();
         }
-        return urls[0];
+        return endpoints;
+    }
+
+    // Split a whitespace separated list of URIs or QNames
+    private static List<String> splitList(String text) {
+        text = text == null ? "" : text.trim();
+        return text.isEmpty() ? List.of() : List.of(text.split("\\s+"));
+    }
+
+    // An endpoint read from a ProbeMatch, Hello or Bye element
+    private record DiscoveryEndpoint(String kind, ProbeMatch endpoint) {
     }
 
     /**
@@ -61,21 +163,26 @@ public class OnvifResponseParser {
      *
      * @param xml the XML response from the ONVIF device
      * @return an array containing the media and device URLs
-     * @throws DocumentException if the XML cannot be parsed
+     * @throws XMLStreamException if the XML cannot be parsed
+     * @throws OnvifException     if the response contains a Fault element, or if
+     *                            either URL is missing
      */
-    public static String[] parseDeviceAndMediaUrl(String xml) throws DocumentException {
-        logger.info("Parsing device and media URL from response: \n{}", xml);
+    public static String[] parseDeviceAndMediaUrl(String xml) throws XMLStreamException, OnvifException {
+        logger.debug("Parsing device and media URL from response: \n{}", xml);
+        String deviceUrl = null;
+        String mediaUrl = null;
 
-        // Parse the XML to get the Capabilities element
-        Element capabilities = DocumentHelper.parseText(xml).getRootElement().element("Body")
-                .element("GetCapabilitiesResponse").element("Capabilities");
-
-        // Extract the Media and Device URLs from the Capabilities element
-        String deviceUrl = capabilities.element("Device").element("XAddr").getTextTrim();
-        String mediaUrl = capabilities.element("Media").element("XAddr").getTextTrim();
+        // Read only the XAddr of the Device and Media capabilities
+        try (SoapReader reader = new SoapReader(xml)) {
+            while ((deviceUrl == null || mediaUrl == null) && reader.nextElement()) {
+                if (reader.isAt(CAPABILITIES + "/Device/XAddr"))
+                    deviceUrl = reader.getText();
+                else if (reader.isAt(CAPABILITIES + "/Media/XAddr"))
+                    mediaUrl = reader.getText();
+            }
+        }
 
-        // Return the extracted URLs as an array
-        return new String[]{deviceUrl, mediaUrl};
+        return new String[]{required(deviceUrl, "device URL"), required(mediaUrl, "media URL")};
     }
 
     /**
@@ -105,113 +212,109 @@ public class OnvifResponseParser {
      *
      * @param xml the ONVIF response to parse
      * @return the SystemDateAndTime element text content
-     * @throws DocumentException if the XML can not be parsed
-     */
-    public static String parseSystemDateAndTime(String xml) throws DocumentException {
-        logger.info("Parsing system date and time from response: \n{}", xml);
-        // Parse the XML document and navigate to the UTCDateTime element
-        Element dateTime = DocumentHelper.parseText(xml).getRootElement().element("Body")
-                .element("GetSystemDateAndTimeResponse").element("SystemDateAndTime").element("UTCDateTime");
-
-        // Extract the date and time from the UTCDateTime element
-        Element date = dateTime.element("Date");
-        int year = Integer.parseInt(date.element("Year").getTextTrim());
-        int month = Integer.parseInt(date.element("Month").getTextTrim());
-        int day = Integer.parseInt(date.element("Day").getTextTrim());
-
-        Element time = dateTime.element("Time");
-        int hour = Integer.parseInt(time.element("Hour").getTextTrim());
-        int minute = Integer.parseInt(time.element("Minute").getTextTrim());
-        int second = Integer.parseInt(time.element("Second").getTextTrim());
-
-        // Format the date and time in the ISO 8601 format
-        return String.format("%04d-%02d-%02dT%02d:%02d:%02dZ", year, month, day, hour, minute, second);
-    }
-
-    /**
-     * Parses the given XML string to extract the SOAP body element.
-     *
-     * @param xml the XML string to parse
-     * @return the SOAP body element
-     * @throws DocumentException if the XML cannot be parsed
-     * @throws OnvifException    if the response does not contain a body, or if the
-     *                           body contains a Fault element
+     * @throws XMLStreamException if the XML can not be parsed
+     * @throws OnvifException     if the response contains a Fault element, or if
+     *                            the UTC date and time is missing
      */
-    private static Element getBody(String xml) throws DocumentException, OnvifException {
-        Element body = DocumentHelper.parseText(xml).getRootElement().element("Body");
+    public static String parseSystemDateAndTime(String xml) throws XMLStreamException, OnvifException {
+        logger.debug("Parsing system date and time from response: \n{}", xml);
+        // Year, month, day, hour, minute and second, in the order they are formatted
+        String[] fields = new String[DATE_TIME_FIELDS.size()];
+        int found = 0;
 
-        if (body == null) {
-            throw new OnvifException("No body in response");
+        try (SoapReader reader = new SoapReader(xml)) {
+            while (found < fields.length && reader.nextElement()) {
+                String field = reader.getPathWithin(UTC_DATE_TIME);
+                int index = field == null ? -1 : DATE_TIME_FIELDS.indexOf(field);
+                if (index >= 0 && fields[index] == null) {
+                    fields[index] = reader.getText();
+                    found++;
+                }
+            }
         }
 
-        Element fault = body.element("Fault");
-        if (fault != null) {
-            // If there is a Fault element, throw an OnvifException with the error text
-            String code = fault.element("Code").element("Subcode").element("Value").getTextTrim();
-            String reason = fault.element("Reason").element("Text").getTextTrim();
-            throw new OnvifException(code.replaceFirst("ter:", "") + ": " + reason);
-        }
+        if (found < fields.length)
+            throw new OnvifException("No UTC date and time in response");
 
-        return body;
+        // Format the date and time in the ISO 8601 format
+        return String.format("%04d-%02d-%02dT%02d:%02d:%02dZ", Integer.parseInt(fields[0]), Integer.parseInt(fields[1]),
+                Integer.parseInt(fields[2]), Integer.parseInt(fields[3]), Integer.parseInt(fields[4]), Integer.parseInt(fields[5]));
     }
 
     /**
      * Parses the given XML string to extract the list of profiles in the
-     * GetProfilesResponse.
+     * GetProfilesResponse. Only the name and token of each profile and the settings
+     * of its video encoder are read; the other configurations of the profile, which
+     * make up most of the response of a multichannel NVR, are skipped.
      *
      * @param xml the XML string to parse
      * @return the list of profiles
-     * @throws DocumentException if the XML cannot be parsed
-     * @throws OnvifException    if the response does not contain a body, or if the
-     *                           body contains a Fault element
+     * @throws XMLStreamException if the XML cannot be parsed
+     * @throws OnvifException     if the response does not contain a body, or if the
+     *                            body contains a Fault element
      */
-    public static List<Profile> parseProfiles(String xml) throws DocumentException, OnvifException {
-        logger.info("Parsing profiles from response: \n{}", xml);
+    public static List<Profile> parseProfiles(String xml) throws XMLStreamException, OnvifException {
+        logger.debug("Parsing profiles from response: \n{}", xml);
         List<Profile> profiles = new ArrayList<>();
-        List<Element> elements = getBody(xml).element("GetProfilesResponse").elements("Profiles");
-
-        for (Element element : elements) {
-            Profile profile = new Profile();
-            profile.setName(element.element("Name").getTextTrim());
-            profile.setToken(element.attributeValue("token"));
-
-            try {
-                Element vec = element.element("VideoEncoderConfiguration");
-                if (vec != null) {
-                    profile.setEncoding(vec.element("Encoding").getTextTrim());
-                    profile.setResolutionWidth(Integer.parseInt(vec.element("Resolution").element("Width").getTextTrim()));
-                    profile.setResolutionHeight(
-                            Integer.parseInt(vec.element("Resolution").element("Height").getTextTrim()));
-                    profile.setQuality(Float.parseFloat(vec.element("Quality").getTextTrim()));
-                    Element rateControl = vec.element("RateControl");
-                    profile.setFrameRate(Integer.parseInt(rateControl.element("FrameRateLimit").getTextTrim()));
-                    profile.setEncodingInterval(Integer.parseInt(rateControl.element("EncodingInterval").getTextTrim()));
-                    profile.setBitrate(Integer.parseInt(rateControl.element("BitrateLimit").getTextTrim()));
+        Profile profile = null;
+
+        try (SoapReader reader = new SoapReader(xml)) {
+            while (reader.nextElement()) {
+                if (reader.isAt(PROFILES)) {
+                    profile = new Profile().setToken(reader.getAttribute("token"));
+                    profiles.add(profile);
+                    continue;
                 }
-            } catch (Exception e) {
-                logger.warn("Error getting additional information profile {}: {}", profile.name(), e.getMessage());
-            }
 
-            profiles.add(profile);
+                String path = profile == null ? null : reader.getPathWithin(PROFILES);
+                if (path != null)
+                    setProfileField(profile, path, reader);
+            }
+            reader.requireBody();
         }
         return profiles;
     }
 
+    // Set the field of the profile read from the element at the given path within the Profiles element
+    private static void setProfileField(Profile profile, String path, SoapReader reader) throws XMLStreamException, OnvifException {
+        try {
+            switch (path) {
+                case "Name" -> profile.setName(reader.getText());
+                case "VideoEncoderConfiguration/Encoding" -> profile.setEncoding(reader.getText());
+                case "VideoEncoderConfiguration/Resolution/Width" -> profile.setResolutionWidth(Integer.parseInt(reader.getText()));
+                case "VideoEncoderConfiguration/Resolution/Height" -> profile.setResolutionHeight(Integer.parseInt(reader.getText()));
+                case "VideoEncoderConfiguration/Quality" -> profile.setQuality(Float.parseFloat(reader.getText()));
+                case "VideoEncoderConfiguration/RateControl/FrameRateLimit" -> profile.setFrameRate(Double.parseDouble(reader.getText()));
+                case "VideoEncoderConfiguration/RateControl/EncodingInterval" -> profile.setEncodingInterval(Integer.parseInt(reader.getText()));
+                case "VideoEncoderConfiguration/RateControl/BitrateLimit" -> profile.setBitrate(Integer.parseInt(reader.getText()));
+                default -> {
+                }
+            }
+        } catch (NumberFormatException e) {
+            logger.warn("Error getting additional information profile {}: {}", profile.name(), e.getMessage());
+        }
+    }
+
     /**
      * Given a GetStreamUriResponse ONVIF response, extracts the stream URI from the
      * MediaUri element.
      *
      * @param xml the ONVIF response to parse
      * @return the stream URI
-     * @throws DocumentException if the XML cannot be parsed
-     * @throws OnvifException    if the response does not contain a body, or if the
-     *                           body contains a Fault element
+     * @throws XMLStreamException if the XML cannot be parsed
+     * @throws OnvifException     if the response does not contain a body, if the
+     *                            body contains a Fault element, or if the URI is missing
      */
-    public static String parseStreamUri(String xml) throws DocumentException, OnvifException {
-        logger.info("Parsing stream URI from response: \n{}", xml);
-        return URLDecoder.decode(
-                getBody(xml).element("GetStreamUriResponse").element("MediaUri").element("Uri").getTextTrim(),
-                StandardCharsets.UTF_8);
+    public static String parseStreamUri(String xml) throws XMLStreamException, OnvifException {
+        logger.debug("Parsing stream URI from response: \n{}", xml);
+        try (SoapReader reader = new SoapReader(xml)) {
+            while (reader.nextElement()) {
+                if (reader.isAt(STREAM_URI))
+                    return URLDecoder.decode(reader.getText(), StandardCharsets.UTF_8);
+            }
+            reader.requireBody();
+        }
+        throw new OnvifException("No stream URI in response");
     }
 
     /**
@@ -221,23 +324,204 @@ public class OnvifResponseParser {
      * @param xml the ONVIF response to parse
      * @return a list of strings containing the device information: manufacturer,
      * model, and serial number
-     * @throws DocumentException if the XML cannot be parsed
-     * @throws OnvifException    if the response does not contain a body, or if the
-     *                           body contains a Fault element
+     * @throws XMLStreamException if the XML cannot be parsed
+     * @throws OnvifException     if the response does not contain a body, if the
+     *                            body contains a Fault element, or if any of the
+     *                            information is missing
+     */
+    public static List<String> parseOnvifDeviceInformation(String xml) throws XMLStreamException, OnvifException {
+        logger.debug("Parsing device information from response: \n{}", xml);
+        String manufacturer = null;
+        String model = null;
+        String serialNumber = null;
+
+        try (SoapReader reader = new SoapReader(xml)) {
+            while ((manufacturer == null || model == null || serialNumber == null) && reader.nextElement()) {
+                String field = reader.getPathWithin(DEVICE_INFORMATION);
+                if (field == null)
+                    continue;
+                switch (field) {
+                    case "Manufacturer" -> manufacturer = reader.getText();
+                    case "Model" -> model = reader.getText();
+                    case "SerialNumber" -> serialNumber = reader.getText();
+                    default -> {
+                    }
+                }
+            }
+            reader.requireBody();
+        }
+
+        return Arrays.asList(required(manufacturer, "manufacturer"), required(model, "model"),
+                required(serialNumber, "serial number"));
+    }
+
+    /**
+     * Reads no more of the response to a GetCapabilities request than is needed to tell
+     * whether it came from an ONVIF device service. The verdict is clear from the first
+     * elements of the response: a web page or other document has a root element other
+     * than the SOAP Envelope, and an ONVIF device service answers with a
+     * GetCapabilitiesResponse as the first element of the body. Reading stops as soon as
+     * either is seen, so a large admin page costs no more than its first bytes.
+     *
+     * @param response the response body, limited by the caller to the bytes it is willing to read
+     * @return {@link Fingerprint#ONVIF} if the response is a GetCapabilitiesResponse,
+     * {@link Fingerprint#UNKNOWN} if it is a SOAP fault, or {@link Fingerprint#NOT_ONVIF}
+     * if it is anything else, including a response that is not XML or ends before the body
+     * @throws IOException if the response cannot be read, for example because the device stopped sending it
      */
-    public static List<String> parseOnvifDeviceInformation(String xml) throws DocumentException, OnvifException {
-        logger.info("Parsing device information from response: \n{}", xml);
-        Element device = getBody(xml).element("GetDeviceInformationResponse");
+    public static Fingerprint fingerprint(InputStream response) throws IOException {
+        XMLStreamReader reader = null;
+        try {
+            reader = xmlInputFactory.createXMLStreamReader(response);
+            int depth = 0;
+            boolean inBody = false;
 
-        String manufacturer = device.element("Manufacturer").getTextTrim();
-        String model = device.element("Model").getTextTrim();
-        String serialNumber = device.element("SerialNumber").getTextTrim();
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.END_ELEMENT) {
+                    depth--;
+                } else if (event == XMLStreamConstants.START_ELEMENT) {
+                    String name = reader.getLocalName();
+                    switch (++depth) {
+                        case 1 -> {
+                            if (!name.equals("Envelope"))
+                                return Fingerprint.NOT_ONVIF;
+                        }
+                        case 2 -> inBody = name.equals("Body");
+                        case 3 -> {
+                            if (inBody)
+                                return name.equals("GetCapabilitiesResponse") ? Fingerprint.ONVIF
+                                        : name.equals("Fault") ? Fingerprint.UNKNOWN : Fingerprint.NOT_ONVIF;
+                        }
+                        default -> {
+                        }
+                    }
+                }
+            }
+            return Fingerprint.NOT_ONVIF;
+        } catch (XMLStreamException e) {
+            // A failed read is no verdict, but a response that is not XML, or is cut off by the limit, is not ONVIF
+            if (e.getNestedException() instanceof IOException ioException)
+                throw ioException;
+            logger.debug("Response is not a SOAP message: {}", e.getMessage());
+            return Fingerprint.NOT_ONVIF;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                    logger.debug("Error closing reader: {}", e.getMessage());
+                }
+            }
+        }
+    }
 
-        return Arrays.asList(manufacturer, model, serialNumber);
+    private static String required(String value, String name) throws OnvifException {
+        if (value == null)
+            throw new OnvifException("No " + name + " in response");
+        return value;
     }
 
-    public static boolean isOnvifDevice(String response) {
-        logger.info("Confirming ONVIF device: \n{}", response);
-        return response != null && response.contains("GetCapabilitiesResponse");
+    /**
+     * Reads the elements of a SOAP response in a single streaming pass, keeping the path
+     * of local names from the Envelope down to the current element, so that the parse
+     * methods can pick the few values they need without building a document tree.
+     * Elements are matched by local name, whatever prefix or namespace the device uses.
+     * A Fault in the body is thrown as an {@link OnvifException} as soon as it is read.
+     */
+    private static final class SoapReader implements AutoCloseable {
+        private final XMLStreamReader reader;
+        private final StringBuilder path = new StringBuilder();
+        private boolean bodyFound;
+
+        SoapReader(String xml) throws XMLStreamException {
+            reader = xmlInputFactory.createXMLStreamReader(new StringReader(xml));
+        }
+
+        /**
+         * Advances to the next start element.
+         *
+         * @return {@code true} if a start element was reached, {@code false} at the end of the document
+         */
+        boolean nextElement() throws XMLStreamException, OnvifException {
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    if (!path.isEmpty())
+                        path.append('/');
+                    path.append(reader.getLocalName());
+
+                    if (isAt(BODY))
+                        bodyFound = true;
+                    else if (isAt(FAULT))
+                        throw readFault();
+                    return true;
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    removeLast();
+                }
+            }
+            return false;
+        }
+
+        boolean isAt(String elementPath) {
+            return elementPath.contentEquals(path);
+        }
+
+        /**
+         * Retrieves the path of the current element relative to an enclosing element.
+         *
+         * @return the relative path, or null if the current element is not within the given one
+         */
+        String getPathWithin(String elementPath) {
+            int length = elementPath.length();
+            if (path.length() <= length + 1 || path.charAt(length) != '/' || path.lastIndexOf(elementPath, 0) != 0)
+                return null;
+            return path.substring(length + 1);
+        }
+
+        String getAttribute(String name) {
+            return reader.getAttributeValue(null, name);
+        }
+
+        // Read the text of the current element, which moves the reader to its end
+        String getText() throws XMLStreamException {
+            String text = reader.getElementText().trim();
+            removeLast();
+            return text;
+        }
+
+        void requireBody() throws OnvifException {
+            if (!bodyFound)
+                throw new OnvifException("No body in response");
+        }
+
+        // The first subcode is the ONVIF error, such as ter:NotAuthorized, and the reason says why
+        private OnvifException readFault() throws XMLStreamException, OnvifException {
+            String code = null;
+            String subcode = null;
+            String reason = null;
+
+            while (nextElement() && getPathWithin(FAULT) != null) {
+                String field = getPathWithin(FAULT);
+                if (code == null && field.equals("Code/Value"))
+                    code = getText();
+                else if (subcode == null && field.equals("Code/Subcode/Value"))
+                    subcode = getText();
+                else if (reason == null && field.equals("Reason/Text"))
+                    reason = getText();
+            }
+
+            code = subcode != null ? subcode : code;
+            return new OnvifException((code == null ? "" : code.replaceFirst("ter:", "")) + ": " + reason);
+        }
+
+        private void removeLast() {
+            path.setLength(Math.max(path.lastIndexOf("/"), 0));
+        }
+
+        @Override
+        public void close() throws XMLStreamException {
+            reader.close();
+        }
     }
 }
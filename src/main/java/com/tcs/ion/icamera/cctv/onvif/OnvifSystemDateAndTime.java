@@ -2,10 +2,14 @@ package com.tcs.ion.icamera.cctv.onvif;
 
 import com.tcs.ion.icamera.cctv.error.OnvifException;
 import com.tcs.ion.icamera.cctv.model.Cctv;
+import com.tcs.ion.icamera.cctv.util.Deadline;
 import com.tcs.ion.icamera.cctv.util.HttpSoapClient;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
 import static com.tcs.ion.icamera.cctv.onvif.OnvifSoapMessages.ONVIF_GET_DATETIME;
 
 public class OnvifSystemDateAndTime {
@@ -17,16 +21,18 @@ public class OnvifSystemDateAndTime {
     /**
      * Sends a SOAP request to the ONVIF device to retrieve its current system date
      * and time. The response is parsed and the system date and time is stored in
-     * the given Cctv object.
+     * the given Cctv object. The call needs no credential, but a camera that asks
+     * for HTTP authentication is answered with the credential of the Cctv, if it has one.
      *
      * @param cctv The Cctv object to store the system date and time in
+     * @param deadline the deadline shared by the calls of the enquiry
      * @throws OnvifException if the SOAP request fails or the response could not be
      *                        parsed
      */
-    public static void get(Cctv cctv) throws OnvifException {
+    public static void get(Cctv cctv, Deadline deadline) throws OnvifException {
         try {
             // Send the SOAP request and get the response
-            String response = HttpSoapClient.postXml(cctv.getOnvifUrl(), ONVIF_GET_DATETIME);
+            String response = HttpSoapClient.postXml(cctv.getOnvifUrl(), ONVIF_GET_DATETIME, deadline, cctv.getCredential());
 
             // Parse the response and store the system date and time in the Cctv object
             cctv.onvifInfo().setSystemDateAndTime(OnvifResponseParser.parseSystemDateAndTime(response));
@@ -35,4 +41,30 @@ public class OnvifSystemDateAndTime {
             throw new OnvifException(e);
         }
     }
+
+    /**
+     * Asynchronously retrieves the current system date and time of the ONVIF device
+     * and stores it in the given Cctv object, answering an HTTP authentication
+     * challenge with the credential of the Cctv, if it has one.
+     *
+     * @param cctv The Cctv object to store the system date and time in
+     * @param deadline the deadline shared by the calls of the enquiry
+     * @return a future completed once the date and time is stored, or exceptionally
+     * with an {@link OnvifException} if the SOAP request fails or the response could
+     * not be parsed
+     */
+    public static CompletableFuture<Void> getAsync(Cctv cctv, Deadline deadline) {
+        return HttpSoapClient.postXmlAsync(cctv.getOnvifUrl(), ONVIF_GET_DATETIME, deadline, cctv.getCredential())
+                .thenAccept(response -> {
+                    try {
+                        cctv.onvifInfo().setSystemDateAndTime(OnvifResponseParser.parseSystemDateAndTime(response));
+                    } catch (Exception e) {
+                        throw new CompletionException(new OnvifException(e));
+                    }
+                })
+                .whenComplete((ignored, e) -> {
+                    if (e != null)
+                        logger.error("Error getting system date and time for {} as {}", cctv, e.getMessage());
+                });
+    }
 }
@@ -0,0 +1,47 @@
+package com.tcs.ion.icamera.cctv.onvif;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.List;
+
+/**
+ * A single ProbeMatch of a WS-Discovery ProbeMatches response, or the endpoint of a
+ * Hello or Bye announcement, which carries the same fields. A device answering
+ * for several endpoints, such as an NVR, sends one ProbeMatch per endpoint.
+ *
+ * @param messageId         the MessageID of the response the match was received in
+ * @param endpointReference the address of the endpoint reference, which identifies the device across responses
+ * @param types             the types the endpoint implements, such as {@code dn:NetworkVideoTransmitter}
+ * @param scopes            the scopes of the endpoint, such as its name, hardware and location
+ * @param xAddrs            the transport addresses of the device service of the endpoint
+ */
+public record ProbeMatch(String messageId, String endpointReference, List<String> types, List<String> scopes,
+                         List<String> xAddrs) {
+    private static final Logger logger = LogManager.getLogger(ProbeMatch.class);
+
+    /**
+     * Extracts the first "normal" hostname-based device service URL of the match.
+     * <p>
+     * Some devices may respond with multiple URLs, such as a hostname and a
+     * link-local address. This method returns the first URL that has a valid
+     * hostname and not an IPv6 address, or the first URL if there is none.
+     *
+     * @return the device service URL of the match, or null if it has no transport address
+     */
+    public String deviceServiceUrl() {
+        for (String url : xAddrs) {
+            try {
+                URI uri = new URI(url);
+                if (uri.getHost() != null && !uri.getHost().contains(":")) {
+                    return url;
+                }
+            } catch (URISyntaxException e) {
+                logger.warn("Error extracting hostname from URL {} as: {}", url, e.getMessage());
+            }
+        }
+        return xAddrs.isEmpty() ? null : xAddrs.getFirst();
+    }
+}
@@ -72,6 +72,8 @@ public class CctvVerification {
 
         // Start the verification process
         cctvsToVerify.forEach(CctvVerification::verify);
+        logger.info("{} FFmpeg grabbers live, {} bytes of native memory allocated, {} bytes resident.",
+                RTSPProbe.getLiveGrabberCount(), RTSPProbe.getNativeBytes(), RTSPProbe.getPhysicalBytes());
 
         // Print the verified CCTVs
         DataStore.printVerifiedCctvs();
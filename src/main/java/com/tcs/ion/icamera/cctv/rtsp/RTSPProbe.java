@@ -3,15 +3,19 @@ package com.tcs.ion.icamera.cctv.rtsp;
 import com.tcs.ion.icamera.cctv.error.VerificationException;
 import com.tcs.ion.icamera.cctv.model.Cctv;
 import com.tcs.ion.icamera.cctv.model.Profile;
+import com.tcs.ion.icamera.cctv.util.RtspUrlParser;
+import com.tcs.ion.icamera.cctv.util.RtspUrlParser.RtspUrl;
 import com.tcs.ion.icamera.cctv.util.UrlParser;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.bytedeco.javacpp.Pointer;
 import org.bytedeco.javacv.FFmpegFrameGrabber;
 import org.bytedeco.javacv.FrameGrabber;
 
+import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The RTSPProbe class provides a static utility method for probing an RTSP stream
@@ -19,15 +23,37 @@ import java.util.concurrent.atomic.AtomicReference;
  * This class is designed to interact with ONVIF-compliant CCTV devices and determine
  * the video stream's properties or report any errors encountered during the process.
  * <p>
- * The class internally utilizes the FFmpegFrameGrabber library for handling RTSP streams
- * and uses multi-threading to manage operations like grabbing and cleanup within a specified
- * timeout to ensure robustness and avoid blocking.
+ * The properties are first read from the SDP the camera sends in answer to a DESCRIBE
+ * request, which takes a round trip and no media session. Only when the SDP leaves some
+ * of them out, or the request fails, is the stream opened with the FFmpegFrameGrabber
+ * library.
+ * <p>
+ * Grabbers run on a shared pool of {@value #DEFAULT_MAX_GRABBERS} threads, or as many as
+ * set by the {@code cctv.rtsp.maxGrabbers} system property, which bounds the native
+ * demuxers open at a time. Each grabber is given FFmpeg's own socket and I/O timeouts of
+ * {@value #DEFAULT_TIMEOUT} ms, or as set by the {@code cctv.rtsp.probeTimeout} system
+ * property, so a camera that stops answering makes FFmpeg return rather than leaving a
+ * thread blocked in native code. The worker that opened a grabber always releases it.
+ * A probe that waits longer than its deadline for a free worker is not made, and is
+ * reported apart from a camera that does not answer.
+ * The number of live grabbers and the native memory allocated by JavaCPP are exposed
+ * for monitoring.
  * <p>
  * This class is not instantiable and is intended to be used statically.
  */
 public class RTSPProbe {
+    public static final int DEFAULT_TIMEOUT = 5000;
+    public static final int DEFAULT_MAX_GRABBERS = 4;
+
     private static final Logger logger = LogManager.getLogger(RTSPProbe.class);
-    private static final int TIMEOUT_IN_SECONDS = 5;
+    private static final int TIMEOUT = Integer.getInteger("cctv.rtsp.probeTimeout", DEFAULT_TIMEOUT);
+    private static final int MAX_GRABBERS = Integer.getInteger("cctv.rtsp.maxGrabbers", DEFAULT_MAX_GRABBERS);
+    // The longest wait for a probe, long enough for FFmpeg to time out on UDP, retry on TCP and analyse the stream
+    private static final long PROBE_DEADLINE = 4L * TIMEOUT;
+    // Platform threads, as a virtual thread blocked in native code would pin its carrier
+    private static final ExecutorService executor = Executors.newFixedThreadPool(MAX_GRABBERS,
+            Thread.ofPlatform().name("rtsp-probe-", 1).daemon().factory());
+    private static final AtomicInteger liveGrabbers = new AtomicInteger();
 
     private RTSPProbe() {
     }
@@ -48,69 +74,154 @@ public class RTSPProbe {
     public static Profile grab(Cctv cctv) throws VerificationException, URISyntaxException {
         String rtspUrl = UrlParser.getRtspUrlForFfmpeg(cctv.getSubStreamUri(), cctv.getUsername(), cctv.getPassword());
         Profile profile = cctv.getSubStreamProfile();
+        if (describe(rtspUrl, profile))
+            return profile;
 
         logger.info("Probing RTSP stream: {}", rtspUrl);
-        FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(rtspUrl);
-        ExecutorService startExecutor = Executors.newSingleThreadExecutor(); // For grabber.start()
-        ExecutorService cleanupExecutor = Executors.newSingleThreadExecutor(); // For grabber.stop()/release()
-        AtomicReference<Boolean> grabberSuccess = new AtomicReference<>(false);
-
-        try {
-            Future<Void> future = startExecutor.submit(() -> {
-                grabber.start();
-
-                // Get video properties
-                if (grabber.getVideoStream() == -1) {
-                    logger.error("No video stream found in camera stream.");
-                    cctv.addError("No video stream found in camera feed.");
-                } else {
-                    profile.setResolutionWidth(grabber.getImageWidth());
-                    profile.setResolutionHeight(grabber.getImageHeight());
-                    profile.setFrameRate(grabber.getVideoFrameRate());
-                    profile.setEncoding(grabber.getVideoCodecName());
-                    profile.setBitrate(grabber.getVideoBitrate());
-                    grabberSuccess.set(true);
-
-                    logger.info("Video properties: {}", profile);
-                }
-
+        CompletableFuture<Boolean> started = new CompletableFuture<>();
+        Future<SdpParser.Video> future = executor.submit(() -> {
+            // Skip a probe whose caller gave up waiting for a worker
+            if (!started.complete(true))
                 return null;
-            });
+            return open(rtspUrl);
+        });
 
-            future.get(TIMEOUT_IN_SECONDS, TimeUnit.SECONDS); // Wait with timeout
+        // The wait for a worker is bounded on its own, so a camera queued behind stuck probes is not blamed for them
+        if (!started.completeOnTimeout(false, PROBE_DEADLINE, TimeUnit.MILLISECONDS).join()) {
+            future.cancel(false);
+            logger.error("No probe worker free within {} ms, with {} grabbers live. Stream not probed: {}", PROBE_DEADLINE, liveGrabbers.get(), rtspUrl);
+            cctv.addError("Unable to check CCTV feed as other cameras are still being probed. Retry the verification.");
+            return profile;
+        }
+
+        try {
+            // The deadline runs from when a worker takes the probe, not from when it was queued
+            SdpParser.Video video = future.get(PROBE_DEADLINE, TimeUnit.MILLISECONDS);
+            if (video == null) {
+                logger.error("No video stream found in camera stream.");
+                cctv.addError("No video stream found in camera feed.");
+            } else {
+                fill(profile, video);
+                logger.info("Video properties: {}", profile);
+            }
         } catch (TimeoutException e) {
-            logger.error("Timeout occurred while opening video. Attempting to stop and release...");
-
-            if (grabberSuccess.get() != null && grabberSuccess.get())
-                logger.warn("Grabber success but yet got timeout.");
-            else cctv.addError("Unable to get CCTV feed. Check the camera connectivity and video stream URL.");
-
-            // Crucial: Stop and release in a *separate* thread
-            cleanupExecutor.submit(() -> {
-                try {
-                    grabber.stop();
-                    grabber.release();
-                    logger.info("Grabber stopped and released.");
-                } catch (FrameGrabber.Exception ex) {
-                    logger.error("Error stopping/releasing grabber: {}", ex.getMessage());
-                }
-            });
-
-        } catch (InterruptedException | ExecutionException e) {
-            logger.error("Error probing video stream: {}", e.getMessage());
+            // A running probe is released by its worker once FFmpeg returns
+            future.cancel(false);
+            logger.error("Probe not done after {} ms, leaving it to its worker.", PROBE_DEADLINE);
+            cctv.addError("Unable to get CCTV feed. Check the camera connectivity and video stream URL.");
+        } catch (ExecutionException e) {
+            logger.error("Error probing video stream: {}", e.getCause().getMessage());
             cctv.addError("Unable to check CCTV feed. Check the camera connectivity and video stream URL.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); // Re-interrupt the thread
+            future.cancel(false);
+            logger.warn("Interrupted while probing video stream.");
+            cctv.addError("Unable to check CCTV feed. Check the camera connectivity and video stream URL.");
+        }
+        return profile;
+    }
+
+    /**
+     * Opens the stream with FFmpeg on a worker of the pool and reads its properties,
+     * releasing the grabber before returning whether or not it could be opened.
+     *
+     * @param rtspUrl the RTSP URL of the stream, with the credential of the camera
+     * @return the properties of the stream, or null if it has no video
+     * @throws FrameGrabber.Exception if the stream cannot be opened in time
+     */
+    private static SdpParser.Video open(String rtspUrl) throws FrameGrabber.Exception {
+        // FFmpeg takes the timeouts in microseconds
+        String timeout = Long.toString(TimeUnit.MILLISECONDS.toMicros(TIMEOUT));
+        FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(rtspUrl);
+        liveGrabbers.incrementAndGet();
+        try {
+            grabber.setOption("timeout", timeout); // Socket I/O of the RTSP demuxer
+            grabber.setOption("rw_timeout", timeout); // Each read and write of the protocol
+            // start() holds a lock shared by every grabber, which would open the streams one at a time.
+            // FFmpeg opens separate inputs on separate threads safely, so the pool bounds them instead.
+            grabber.startUnsafe();
+
+            if (grabber.getVideoStream() == -1)
+                return null;
+            return new SdpParser.Video(grabber.getVideoCodecName(), grabber.getImageWidth(), grabber.getImageHeight(),
+                    grabber.getVideoFrameRate(), grabber.getVideoBitrate());
         } finally {
-            startExecutor.shutdownNow(); // Important to shut down the executor
-            cleanupExecutor.shutdownNow(); // Shut down the cleanup executor as well
             try {
-                // Give some time for the cleanup to complete.  This might not be strictly necessary but a good practice.
-                if (cleanupExecutor.awaitTermination(2, TimeUnit.SECONDS)) logger.info("Cleanup executor terminated.");
-                else logger.warn("Cleanup executor failed to terminate.");
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt(); // Re-interrupt the thread
-                logger.warn("Interrupted while waiting for cleanup.");
+                grabber.close();
+            } catch (FrameGrabber.Exception e) {
+                logger.error("Error stopping/releasing grabber: {}", e.getMessage());
             }
+            liveGrabbers.decrementAndGet();
         }
-        return profile;
+    }
+
+    /**
+     * Fills the profile from the SDP of the stream, without opening it.
+     *
+     * @param rtspUrl the RTSP URL of the stream, with the credential of the camera
+     * @param profile the profile to fill
+     * @return {@code true} if the SDP gave the codec, resolution and frame rate of the
+     *         stream, {@code false} if the stream has to be opened to find them
+     */
+    private static boolean describe(String rtspUrl, Profile profile) throws VerificationException {
+        RtspUrl url = RtspUrlParser.parseRTSPUrl(rtspUrl);
+        String requestUrl = RtspUrlChecker.getRequestUrl(url.getHost(), url.getPort(), url);
+
+        try (RtspClient client = new RtspClient(url.getHost(), url.getPort(), TIMEOUT)) {
+            RtspClient.Response response = client.describe(requestUrl, RtspUrlChecker.getCredential(url));
+            if (response.status() != 200 || response.body() == null) {
+                logger.info("DESCRIBE of {} answered {} {}, opening the stream instead", requestUrl, response.status(), response.reason());
+                return false;
+            }
+
+            SdpParser.Video video = SdpParser.parse(response.body());
+            if (video == null || !video.isComplete()) {
+                logger.info("SDP of {} does not describe the video fully ({}), opening the stream instead", requestUrl, video);
+                return false;
+            }
+
+            fill(profile, video);
+            logger.info("Video properties from SDP: {}", profile);
+            return true;
+        } catch (IOException e) {
+            logger.warn("Error describing RTSP stream {}: {}", requestUrl, e.getMessage());
+            return false;
+        }
+    }
+
+    private static void fill(Profile profile, SdpParser.Video video) {
+        profile.setResolutionWidth(video.width());
+        profile.setResolutionHeight(video.height());
+        profile.setFrameRate(video.frameRate());
+        profile.setEncoding(video.encoding());
+        profile.setBitrate(video.bitrate());
+    }
+
+    /**
+     * Retrieves the number of FFmpeg grabbers created and not yet released.
+     *
+     * @return the number of live native grabbers
+     */
+    public static int getLiveGrabberCount() {
+        return liveGrabbers.get();
+    }
+
+    /**
+     * Retrieves the bytes of native memory currently allocated through JavaCPP, which
+     * includes the buffers of every live grabber.
+     *
+     * @return the bytes allocated by JavaCPP
+     */
+    public static long getNativeBytes() {
+        return Pointer.totalBytes();
+    }
+
+    /**
+     * Retrieves the physical memory used by the process, as estimated by JavaCPP.
+     *
+     * @return the resident bytes of the process
+     */
+    public static long getPhysicalBytes() {
+        return Pointer.physicalBytes();
     }
 }
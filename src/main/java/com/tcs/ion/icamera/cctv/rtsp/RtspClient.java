@@ -0,0 +1,287 @@
+package com.tcs.ion.icamera.cctv.rtsp;
+
+import com.tcs.ion.icamera.cctv.util.Credential;
+import org.apache.http.Header;
+import org.apache.http.auth.AUTH;
+import org.apache.http.auth.AuthenticationException;
+import org.apache.http.auth.ContextAwareAuthScheme;
+import org.apache.http.auth.MalformedChallengeException;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.impl.auth.BasicScheme;
+import org.apache.http.impl.auth.DigestScheme;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicHttpRequest;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A minimal RTSP client that sends OPTIONS and DESCRIBE requests over a plain socket,
+ * which is all that is needed to find out whether a stream path exists on a camera and
+ * whether a credential is accepted for it. No media session is set up, so a request
+ * takes a round trip and a few kilobytes instead of starting a native demuxer.
+ * <p>
+ * A client holds one control connection to a camera and can send any number of requests
+ * on it, one at a time. Each request carries the next CSeq, and each response is matched
+ * to its request by the CSeq it echoes. When the camera answers 401, the request is sent
+ * again with the credential, using Digest if the camera offers it and Basic otherwise.
+ * The scheme is kept for the later requests on the connection with the same credential,
+ * so they authenticate up front with the next nonce count instead of being challenged
+ * again.
+ */
+public class RtspClient implements Closeable {
+    public static final int DEFAULT_PORT = 554;
+
+    private static final Logger logger = LogManager.getLogger(RtspClient.class);
+    private static final String USER_AGENT = "iCameraCctvVerification";
+    // Limits on what a camera may send, so a misbehaving device cannot exhaust memory
+    private static final int MAX_LINE_LENGTH = 8192;
+    private static final int MAX_HEADERS = 100;
+    private static final int MAX_BODY_LENGTH = 65536;
+
+    private final String host;
+    private final int port;
+    private final Socket socket;
+    private final InputStream in;
+    private final OutputStream out;
+    private int cseq;
+    // The scheme the camera asked for, reused for the later requests on the connection with the same credential
+    private ContextAwareAuthScheme authScheme;
+    private Credential authCredential;
+
+    /**
+     * Opens a control connection to the RTSP server of a camera.
+     *
+     * @param host    the host name or IP address of the camera
+     * @param port    the RTSP port of the camera
+     * @param timeout the connect timeout and the longest wait for each response, in milliseconds
+     * @throws IOException if the connection cannot be opened
+     */
+    public RtspClient(String host, int port, int timeout) throws IOException {
+        this.host = host;
+        this.port = port;
+        this.socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(timeout);
+            socket.connect(new InetSocketAddress(host, port), timeout);
+            in = new BufferedInputStream(socket.getInputStream());
+            out = socket.getOutputStream();
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Sends an OPTIONS request, which most cameras answer without authentication.
+     *
+     * @param url the RTSP URL to send the request for, without credentials
+     * @return the response of the camera
+     * @throws IOException if the request cannot be sent or no response arrives in time
+     */
+    public Response options(String url) throws IOException {
+        return send("OPTIONS", url, null);
+    }
+
+    /**
+     * Sends a DESCRIBE request for the SDP of a stream, answering an authentication
+     * challenge of the camera with the credential.
+     *
+     * @param url        the RTSP URL of the stream, without credentials
+     * @param credential the credential to authenticate with, or null to send none
+     * @return the response of the camera, with the SDP as its body if the stream exists
+     * @throws IOException if the request cannot be sent or no response arrives in time
+     */
+    public Response describe(String url, Credential credential) throws IOException {
+        return send("DESCRIBE", url, credential);
+    }
+
+    private Response send(String method, String url, Credential credential) throws IOException {
+        // Another credential waits for a fresh challenge, rather than being sent on the nonce of the last one
+        if (credential != null && !credential.equals(authCredential))
+            authScheme = null;
+        Response response = exchange(method, url, credential == null ? null : authorization(method, url, credential));
+
+        // Answer a challenge once, or again if the cached nonce has gone stale
+        if (response.status() == 401 && credential != null) {
+            List<String> challenges = response.headers(AUTH.WWW_AUTH);
+            if (!challenges.isEmpty() && processChallenge(challenges)) {
+                response = exchange(method, url, authorization(method, url, credential));
+                if (response.status() == 401)
+                    authScheme = null;
+            }
+        }
+        return response;
+    }
+
+    // Prefer Digest to Basic, as Basic sends the password in the clear
+    private boolean processChallenge(List<String> challenges) {
+        String digest = null;
+        String basic = null;
+        for (String challenge : challenges) {
+            String scheme = challenge.trim().split("\\s+", 2)[0];
+            if (scheme.equalsIgnoreCase("Digest"))
+                digest = challenge;
+            else if (scheme.equalsIgnoreCase("Basic"))
+                basic = challenge;
+        }
+
+        try {
+            ContextAwareAuthScheme scheme = digest != null ? new DigestScheme() : basic != null ? new BasicScheme(StandardCharsets.UTF_8) : null;
+            if (scheme == null) {
+                logger.debug("Unsupported RTSP authentication on {}:{}: {}", host, port, challenges);
+                return false;
+            }
+            scheme.processChallenge(new BasicHeader(AUTH.WWW_AUTH, digest != null ? digest : basic));
+            authScheme = scheme;
+            return true;
+        } catch (MalformedChallengeException e) {
+            logger.debug("Malformed RTSP authentication challenge from {}:{}: {}", host, port, e.getMessage());
+            return false;
+        }
+    }
+
+    private String authorization(String method, String url, Credential credential) throws IOException {
+        if (authScheme == null)
+            return null;
+        try {
+            authCredential = credential;
+            Header header = authScheme.authenticate(new UsernamePasswordCredentials(credential.getUsername(), credential.getPassword()),
+                    new BasicHttpRequest(method, url), new BasicHttpContext());
+            return header.getValue();
+        } catch (AuthenticationException e) {
+            throw new IOException("Cannot authenticate to " + host + ":" + port + ": " + e.getMessage(), e);
+        }
+    }
+
+    private Response exchange(String method, String url, String authorization) throws IOException {
+        int sequence = ++cseq;
+        StringBuilder request = new StringBuilder()
+                .append(method).append(' ').append(url).append(" RTSP/1.0\r\n")
+                .append("CSeq: ").append(sequence).append("\r\n")
+                .append("User-Agent: ").append(USER_AGENT).append("\r\n");
+        if (method.equals("DESCRIBE"))
+            request.append("Accept: application/sdp\r\n");
+        if (authorization != null)
+            request.append(AUTH.WWW_AUTH_RESP).append(": ").append(authorization).append("\r\n");
+        request.append("\r\n");
+
+        out.write(request.toString().getBytes(StandardCharsets.UTF_8));
+        out.flush();
+
+        // Skip the late response to an earlier request that was given up on
+        Response response;
+        do {
+            response = readResponse();
+        } while (response.cseq() >= 0 && response.cseq() < sequence);
+
+        if (response.cseq() != sequence && response.cseq() >= 0)
+            throw new ProtocolException("Response CSeq " + response.cseq() + " does not match request CSeq " + sequence);
+        return response;
+    }
+
+    private Response readResponse() throws IOException {
+        String statusLine = readLine();
+        // RTSP/1.0 200 OK
+        String[] status = statusLine.split(" ", 3);
+        if (status.length < 2 || !status[0].startsWith("RTSP/"))
+            throw new ProtocolException("Not an RTSP response: " + statusLine);
+
+        Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (String line = readLine(); !line.isEmpty(); line = readLine()) {
+            int colon = line.indexOf(':');
+            if (colon > 0)
+                headers.computeIfAbsent(line.substring(0, colon).trim(), name -> new ArrayList<>()).add(line.substring(colon + 1).trim());
+            if (headers.size() > MAX_HEADERS)
+                throw new ProtocolException("Too many headers in RTSP response");
+        }
+
+        try {
+            int code = Integer.parseInt(status[1]);
+            Response response = new Response(code, status.length > 2 ? status[2] : "", headers, null);
+            int length = Integer.parseInt(response.header("Content-Length", "0"));
+            if (length < 0 || length > MAX_BODY_LENGTH)
+                throw new ProtocolException("RTSP response body of " + length + " bytes");
+            return length == 0 ? response : new Response(code, response.reason(), headers, new String(in.readNBytes(length), StandardCharsets.UTF_8));
+        } catch (NumberFormatException e) {
+            throw new ProtocolException("Malformed RTSP response: " + statusLine);
+        }
+    }
+
+    private String readLine() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        for (int b = in.read(); b != '\n'; b = in.read()) {
+            if (b == -1)
+                throw new EOFException("Connection closed by " + host + ":" + port);
+            if (b != '\r')
+                line.write(b);
+            if (line.size() > MAX_LINE_LENGTH)
+                throw new ProtocolException("RTSP response line too long");
+        }
+        return line.toString(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    /**
+     * The response of a camera to an RTSP request.
+     *
+     * @param status  the status code, such as 200, 401 or 404
+     * @param reason  the reason phrase of the status
+     * @param headers the headers, by case-insensitive name
+     * @param body    the body, such as the SDP of a DESCRIBE, or null if there is none
+     */
+    public record Response(int status, String reason, Map<String, List<String>> headers, String body) {
+
+        /**
+         * Retrieves every value of a header.
+         *
+         * @param name the name of the header
+         * @return the values in the order received, or an empty list if the header is missing
+         */
+        public List<String> headers(String name) {
+            return headers.getOrDefault(name, List.of());
+        }
+
+        /**
+         * Retrieves the first value of a header.
+         *
+         * @param name         the name of the header
+         * @param defaultValue the value to return if the header is missing
+         * @return the first value of the header, or the default value
+         */
+        public String header(String name, String defaultValue) {
+            List<String> values = headers(name);
+            return values.isEmpty() ? defaultValue : values.getFirst();
+        }
+
+        // The CSeq echoed by the camera, or -1 if it left it out
+        int cseq() {
+            try {
+                return Integer.parseInt(header("CSeq", "-1").trim());
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+    }
+}
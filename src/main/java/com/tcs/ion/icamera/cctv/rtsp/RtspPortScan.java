@@ -1,9 +1,10 @@
 package com.tcs.ion.icamera.cctv.rtsp;
 
 import com.tcs.ion.icamera.cctv.data.DataStore;
-import com.tcs.ion.icamera.cctv.model.Cctv;
+import com.tcs.ion.icamera.cctv.util.IpSet;
 import com.tcs.ion.icamera.cctv.util.Network;
 import com.tcs.ion.icamera.cctv.util.NetworkScan;
+import com.tcs.ion.icamera.cctv.util.ScanStage;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -31,11 +32,26 @@ public class RtspPortScan {
     // Common RTSP Ports
     private static final Set<Integer> RTSP_PORTS = Set.of(554, 5543, 8554);
     private static final Logger logger = LogManager.getLogger(RtspPortScan.class);
+    // Capacity of the queue between the port sweep and the host processing
+    private static final int PROCESSING_QUEUE_CAPACITY = 256;
+    // Number of reachable hosts processed concurrently
+    private static final int PROCESSING_WORKERS = 4;
     private static NetworkScan scanner;
+    private static volatile boolean complete;
+    private static NetworkScan.Engine engine = NetworkScan.Engine.DEFAULT;
 
     private RtspPortScan() {
     }
 
+    /**
+     * Selects the connect engine used for subsequent RTSP port sweeps.
+     *
+     * @param engine the {@link NetworkScan.Engine} to sweep the RTSP ports with
+     */
+    public static void setEngine(NetworkScan.Engine engine) {
+        RtspPortScan.engine = engine;
+    }
+
     /**
      * Initiates an RTSP port scan for a specified range of IPv4 addresses.
      *
@@ -61,47 +77,39 @@ public class RtspPortScan {
 
     /**
      * Initiates an RTSP port scan for a specified set of IP addresses.
-     * Scans each provided IP for open RTSP ports and logs the results.
+     * Each reachable IP and RTSP port is processed as soon as the sweep connects to it.
      *
      * @param ips Set of IPv4 addresses to be scanned for RTSP ports.
      */
-    public static void scan(Set<String> ips) {
-        scanner = new NetworkScan(ips, RTSP_PORTS);
-        Map<String, List<Integer>> reachableHosts = scanner.scan();
-
-        logger.info("RTSP scan complete. Found {} IPs with RTSP ports.", reachableHosts.size());
-
-        // Call to process and log new RTSP devices
-        processReachableHosts(reachableHosts);
+    public static void scan(IpSet ips) {
+        complete = false;
+        scanner = new NetworkScan(ips, RTSP_PORTS, engine);
+
+        try (ScanStage<Host> processing = new ScanStage<>("rtsp-hosts", PROCESSING_QUEUE_CAPACITY, PROCESSING_WORKERS, RtspPortScan::processReachableHost)) {
+            Map<String, List<Integer>> reachableHosts = scanner.scan(
+                    // Process each reachable IP address and port
+                    (ip, port) -> processing.submit(new Host(ip, port)));
+
+            logger.info("RTSP scan complete. Found {} IPs with RTSP ports.", reachableHosts.size());
+        } finally {
+            complete = true;
+        }
     }
 
     /**
-     * Processes the given map of reachable hosts and their corresponding ports.
-     * For each entry in the map, this method checks if the host is already an identified CCTV device.
-     * If not, a new CCTV instance is created and added to the datastore with an appropriate error message.
-     * If the host is already identified, the RTSP port information is updated.
+     * Processes a reachable host and its RTSP port.
+     * If the host is not an identified CCTV device, a new CCTV instance is added to the
+     * datastore with an appropriate error message. If the host is already identified,
+     * the RTSP port information is updated. The datastore does both in one step, as
+     * several workers process hosts at the same time.
      *
-     * @param reachableHosts A map where the key represents an IP address (as a String) and the value
-     *                       is a list of integers representing the open ports for that address.
+     * @param host the reachable IP address and its open RTSP port
      */
-    private static void processReachableHosts(Map<String, List<Integer>> reachableHosts) {
-        reachableHosts.forEach((ip, ports) -> ports.forEach(port -> {
-            Cctv cctv = DataStore.getIdentifiedCctvs().stream().filter(c -> ip.equals(c.getIp())).findFirst().orElse(null);
-
-            if (cctv == null) {
-                logger.info("IP {} not in identified devices. Adding as new Cctv with ONVIF not enabled error.", ip);
-
-                // Create a new Cctv object and add it to DataStore
-                Cctv newCctv = new Cctv().withIp(ip).withRtspPort(port).withError("ONVIF not enabled for this CCTV.");
-
-                DataStore.addScannedCctv(newCctv);
-            } else {
-                logger.info("IP {}:{} already exists in identified devices.", ip, port);
-
-                // Update the existing Cctv object with the RTSP port
-                cctv.setRtspPort(port);
-            }
-        }));
+    private static void processReachableHost(Host host) {
+        if (DataStore.addOrUpdateRtspCctv(host.ip(), host.port()))
+            logger.info("IP {} not in identified devices. Added as new Cctv with ONVIF not enabled error.", host.ip());
+        else
+            logger.info("IP {}:{} already exists in identified devices.", host.ip(), host.port());
     }
 
     /**
@@ -117,11 +125,11 @@ public class RtspPortScan {
     /**
      * Checks if the RTSP port scanning operation is complete.
      *
-     * @return true if the scanner is not null and the scanning operation is complete,
+     * @return true if the scanner is not null and both the sweep and the processing of its hosts are complete,
      *         false otherwise.
      */
     public static boolean isComplete() {
-        return scanner != null && scanner.isComplete();
+        return scanner != null && complete;
     }
 
     /**
@@ -143,4 +151,8 @@ public class RtspPortScan {
     public static int getCount() {
         return scanner == null ? 0 : scanner.getCount();
     }
+
+    // A reachable host with an open RTSP port
+    private record Host(String ip, int port) {
+    }
 }
@@ -1,62 +1,212 @@
 package com.tcs.ion.icamera.cctv.rtsp;
 
+import com.tcs.ion.icamera.cctv.error.VerificationException;
+import com.tcs.ion.icamera.cctv.util.Credential;
+import com.tcs.ion.icamera.cctv.util.RtspUrlParser;
+import com.tcs.ion.icamera.cctv.util.RtspUrlParser.RtspUrl;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.bytedeco.javacv.FFmpegFrameGrabber;
 
-import java.util.concurrent.*;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
 
 /**
  * The RtspUrlChecker class provides a utility method for verifying the availability
- * of an RTSP URL. It utilizes the FFmpegFrameGrabber library to attempt to connect
- * to the given RTSP URL and checks its accessibility.
+ * of an RTSP URL. It sends a DESCRIBE request for the URL with the {@link RtspClient}
+ * and classifies the answer of the camera, which tells whether the path exists and
+ * whether the credential in the URL is accepted without setting up a media session.
  * <p>
- * This method uses multi-threading to ensure operations are performed within a specified
- * timeout period to prevent blocking. Logs are generated to indicate successes, errors,
- * or timeout scenarios during the verification process.
+ * A check takes a round trip or two and a few kilobytes, so many candidate paths and
+ * credentials can be checked on many cameras in the time it takes FFmpeg to open one
+ * stream. FFmpeg is left to the final probe of the stream quality. Many URLs of the same
+ * camera are checked on one connection with a {@link Session}.
  * <p>
  * The class is primarily designed for use cases where verifying the reachability of RTSP
  * streams is required, such as in CCTV systems or media streaming applications.
  */
 public class RtspUrlChecker {
+    public static final int DEFAULT_TIMEOUT = 4000;
+
     private static final Logger logger = LogManager.getLogger(RtspUrlChecker.class);
-    private static final int TIMEOUT_IN_SECONDS = 4;
+    private static final int TIMEOUT = Integer.getInteger("cctv.rtsp.checkTimeout", DEFAULT_TIMEOUT);
+    // Timeouts in a row after which a camera that has answered before is taken to have stopped answering
+    private static final int MAX_CONSECUTIVE_TIMEOUTS = 2;
+
     RtspUrlChecker() {
     }
 
     /**
      * Checks if the given RTSP URL is available and reachable.
-     * The method uses an asynchronous task to attempt to establish a connection
-     * to the RTSP URL using FFmpegFrameGrabber. It also enforces a timeout period
-     * to prevent long blocking operations.
      *
-     * @param rtspUrl The RTSP URL to check for availability.
+     * @param rtspUrl The RTSP URL to check for availability, with the credential to check it with.
      * @return {@code true} if the RTSP URL is available; {@code false} otherwise.
      */
     public static boolean isRtspUrlAvailable(String rtspUrl) {
-        ExecutorService executor = Executors.newSingleThreadExecutor();
-        Future<Boolean> future = executor.submit(() -> {
-            try (FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(rtspUrl)) {
-                grabber.start(); // Attempt to start the grabber
-                grabber.stop();  // Cleanly stop the grabber
-                return true;     // If successful, the RTSP URL is available
-            } catch (Exception e) {
-                logger.warn("Exception occurred while checking RTSP URL {} as {}", rtspUrl, e.getMessage());
-                return false;    // If any error occurs, the RTSP URL is not available
-            }
-        });
+        return check(rtspUrl) == Result.AVAILABLE;
+    }
 
+    /**
+     * Sends a DESCRIBE request for the given RTSP URL, authenticating with the credential
+     * in the URL if the camera asks for one, and classifies the answer. The connect timeout
+     * and the wait for each response are {@value #DEFAULT_TIMEOUT} ms, or as set by the
+     * {@code cctv.rtsp.checkTimeout} system property.
+     *
+     * @param rtspUrl The RTSP URL to check, with the credential to check it with.
+     * @return the {@link Result} of the check
+     */
+    public static Result check(String rtspUrl) {
+        RtspUrl url;
         try {
-            return future.get(TIMEOUT_IN_SECONDS, TimeUnit.SECONDS); // Wait with timeout
-        } catch (TimeoutException e) {
-            logger.warn("Timeout occurred while checking RTSP URL {} as {}", rtspUrl, e.getMessage());
-            future.cancel(true); // Cancel the task if it times out
-            return false;
-        } catch (InterruptedException | ExecutionException e) {
-            logger.warn("Interrupt or execution exception occurred while checking RTSP URL {} as {}", rtspUrl, e.getMessage());
-            return false;
-        } finally {
-            executor.shutdownNow(); // Shut down the executor
-        }
-    }
-}
\ No newline at end of file
+            url = RtspUrlParser.parseRTSPUrl(rtspUrl);
+        } catch (VerificationException | RuntimeException e) {
+            logger.warn("Invalid RTSP URL {}: {}", rtspUrl, e.getMessage());
+            return Result.ERROR;
+        }
+
+        try (Session session = new Session(url.getHost(), url.getPort())) {
+            return session.check(url, getCredential(url));
+        }
+    }
+
+    /**
+     * Classifies the answer of a camera to a DESCRIBE request.
+     *
+     * @param response the response of the camera
+     * @return the {@link Result} the status of the response stands for
+     */
+    static Result classify(RtspClient.Response response) {
+        return switch (response.status()) {
+            case 200 -> Result.AVAILABLE;
+            case 401, 403 -> Result.UNAUTHORIZED;
+            case 404 -> Result.NOT_FOUND;
+            default -> Result.ERROR;
+        };
+    }
+
+    // The credential in the URL, or null if it has none
+    static Credential getCredential(RtspUrl url) {
+        return url.hasUsername() ? new Credential(url.getUsername(), url.hasPassword() ? url.getPassword() : "") : null;
+    }
+
+    // The URL sent in the request line, which carries neither the credential nor the fragment of the URL
+    static String getRequestUrl(String host, int port, RtspUrl url) {
+        return url.getScheme() + "://" + host + ":" + port + url.getPath()
+               + (url.getQuery() == null || url.getQuery().isEmpty() ? "" : "?" + url.getQuery());
+    }
+
+    /**
+     * A control connection to the RTSP server of one camera, on which any number of URLs
+     * are checked one after another. Embedded RTSP servers often allow only a few sessions
+     * and lock out clients that open many connections, so all the candidate paths and
+     * credentials for a camera are checked on one connection rather than one each. The
+     * connection is opened on the first check, and opened again if the camera closes it.
+     * <p>
+     * Some devices accept the connection but never answer RTSP. The session is closed on
+     * the first timeout if the camera has not answered any request yet, or after
+     * {@value #MAX_CONSECUTIVE_TIMEOUTS} timeouts in a row otherwise, so that a sweep does not
+     * wait out the timeout on every remaining path and credential.
+     */
+    public static final class Session implements Closeable {
+        private final String host;
+        private final int port;
+        private RtspClient client;
+        private boolean answered;
+        private int timeouts;
+
+        /**
+         * Creates a session with a camera, without connecting to it yet.
+         *
+         * @param host the host name or IP address of the camera
+         * @param port the RTSP port of the camera
+         */
+        public Session(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+
+        /**
+         * Sends a DESCRIBE request for the path, query and host of the given URL on the
+         * session, and classifies the answer.
+         *
+         * @param url        the RTSP URL to check
+         * @param credential the credential to authenticate with if the camera asks for one, or null
+         * @return the {@link Result} of the check
+         */
+        public Result check(RtspUrl url, Credential credential) {
+            String requestUrl = getRequestUrl(host, port, url);
+            boolean reused = client != null;
+            try {
+                Result result = classify(connect().describe(requestUrl, credential));
+                answered = true;
+                timeouts = 0;
+                logger.info("RTSP URL {} checked as {}", requestUrl, result);
+                return result;
+            } catch (SocketTimeoutException e) {
+                logger.warn("Timeout occurred while checking RTSP URL {} as {}", requestUrl, e.getMessage());
+                // The CSeq of the next request tells a late answer to this one apart from its own,
+                // but a camera that never answered or keeps timing out is not worth another request
+                if (!answered || ++timeouts >= MAX_CONSECUTIVE_TIMEOUTS) {
+                    logger.warn("Giving up on RTSP requests to {}:{} after {} timeout(s).", host, port, Math.max(timeouts, 1));
+                    disconnect();
+                }
+                return Result.TIMEOUT;
+            } catch (IOException e) {
+                disconnect();
+                // A camera may close a connection it has kept for a while, so try once on a new one
+                if (reused)
+                    return check(url, credential);
+                logger.warn("Exception occurred while checking RTSP URL {} as {}", requestUrl, e.getMessage());
+                return Result.ERROR;
+            }
+        }
+
+        /**
+         * Checks whether the session holds an open connection, which it no longer does once
+         * the camera could not be reached, closed the connection twice or stopped answering.
+         *
+         * @return {@code true} if the session is connected, {@code false} otherwise
+         */
+        public boolean isConnected() {
+            return client != null;
+        }
+
+        private RtspClient connect() throws IOException {
+            if (client == null)
+                client = new RtspClient(host, port, TIMEOUT);
+            return client;
+        }
+
+        private void disconnect() {
+            if (client == null)
+                return;
+            try {
+                client.close();
+            } catch (IOException e) {
+                logger.debug("Error closing RTSP connection to {}:{}: {}", host, port, e.getMessage());
+            }
+            client = null;
+        }
+
+        @Override
+        public void close() {
+            disconnect();
+        }
+    }
+
+    /**
+     * The outcomes of checking an RTSP URL.
+     */
+    public enum Result {
+        // The camera described the stream, so the path exists and the credential is accepted
+        AVAILABLE,
+        // The camera refused the credential, or asked for one that was not given
+        UNAUTHORIZED,
+        // The camera has no stream at the path
+        NOT_FOUND,
+        // The camera did not answer in time
+        TIMEOUT,
+        // The camera could not be reached or answered with another error
+        ERROR
+    }
+}
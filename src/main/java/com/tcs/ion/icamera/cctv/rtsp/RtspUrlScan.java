@@ -1,10 +1,12 @@
 package com.tcs.ion.icamera.cctv.rtsp;
 
+import com.tcs.ion.icamera.cctv.data.CredentialRanking;
 import com.tcs.ion.icamera.cctv.data.DataStore;
 import com.tcs.ion.icamera.cctv.model.Cctv;
 import com.tcs.ion.icamera.cctv.util.Credential;
 import com.tcs.ion.icamera.cctv.util.RtspUrlParser;
 import com.tcs.ion.icamera.cctv.util.RtspUrlParser.RtspUrl;
+import com.tcs.ion.icamera.cctv.util.ScanExecutor;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -86,9 +88,13 @@ public class RtspUrlScan {
 
     /**
      * Scans a list of CCTVs to verify RTSP stream availability using the provided credentials.
-     * This method retrieves and initializes RTSP URL paths, processes the specified credentials,
-     * and attempts to authenticate and locate RTSP streams for each CCTV. If a stream is successfully
-     * found, the corresponding CCTV is removed from the list of pending scans.
+     * This method retrieves and initializes RTSP URL paths and attempts to authenticate and locate
+     * RTSP streams for each CCTV concurrently, trying the specified credentials on each CCTV in the
+     * order {@link CredentialRanking} expects them to work in, until one of them works.
+     * <p>
+     * The CCTVs are scanned concurrently, but each CCTV is sent one request at a time, all on
+     * one {@link RtspUrlChecker.Session}, so that cameras that allow only a few RTSP sessions are
+     * never asked for more than one.
      *
      * @param credentials one or more {@code Credential} instances containing the authentication information
      *                    (e.g., username and password) used to verify RTSP stream availability for the CCTVs
@@ -97,47 +103,46 @@ public class RtspUrlScan {
         getRtspUrlPaths();
         logger.info("Found RTSP paths for {} main streams and {} sub streams.", mainStreamPaths.size(), subStreamPaths.size());
 
-        List<Cctv> cctvs = new ArrayList<>(DataStore.getRefuteRtspCctvs());
+        List<Cctv> cctvs = DataStore.getRefuteRtspCctvs();
         logger.info("Starting RTSP scan for {} cctvs.", cctvs.size());
 
-        int threadCount = Math.min(cctvs.size(), Runtime.getRuntime().availableProcessors()) * 2;
-        logger.info("USING {} CONCURRENT THREADS.", threadCount);
-        ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+        CredentialRanking.refreshArpTable();
 
-        for (Credential credential : credentials) {
-            logger.info("Processing CCTVs with credential: {}", credential);
-            List<Callable<Void>> tasks = cctvs.stream().map(cctv -> (Callable<Void>) () -> {
-                if (check(cctv, credential)) {
-                    synchronized (cctvs) {
-                        cctvs.remove(cctv);
-                    }
-                }
+        // Each CCTV tries the credentials in the order most likely to work for it, until one works
+        List<Callable<Void>> tasks = cctvs.stream().map(cctv -> (Callable<Void>) () -> {
+            // The streams of an ONVIF CCTV are already known, and no credential is sent to it
+            if (cctv.hasProfile()) {
+                logger.info("CCTV with IP {} already has profile(s).", cctv.getIp());
+                cctv.removeRtspPort();
                 return null;
-            }).toList();
+            }
 
-            try {
-                List<Future<Void>> futures = executorService.invokeAll(tasks);
-                for (Future<Void> future : futures) {
-                    try {
-                        future.get(); // Wait for each task to complete
-                    } catch (ExecutionException e) {
-                        logger.error("Error occurred while processing CCTVs with credential: {}", credential, e);
+            try (RtspUrlChecker.Session session = new RtspUrlChecker.Session(cctv.getIp(), cctv.getPort())) {
+                for (Credential credential : CredentialRanking.rank(cctv, credentials)) {
+                    if (check(cctv, credential, session)) {
+                        CredentialRanking.recordSuccess(cctv, credential);
+                        break;
+                    }
+                    if (!session.isConnected()) {
+                        logger.warn("CCTV with IP {} is not answering RTSP requests.", cctv.getIp());
+                        break;
                     }
                 }
-            } catch (InterruptedException e) {
-                logger.error("Error occurred while processing CCTVs with credential: {}", credential, e);
-                Thread.currentThread().interrupt();
             }
-        }
+            return null;
+        }).toList();
 
-        executorService.shutdown();
         try {
-            if (!executorService.awaitTermination(60, TimeUnit.SECONDS)) {
-                executorService.shutdownNow();
+            List<Future<Void>> futures = ScanExecutor.invokeAll(tasks);
+            for (Future<Void> future : futures) {
+                try {
+                    future.get(); // Wait for each task to complete
+                } catch (ExecutionException e) {
+                    logger.error("Error occurred while processing CCTVs:", e);
+                }
             }
         } catch (InterruptedException e) {
-            logger.error("ExecutorService was interrupted during shutdown.", e);
-            executorService.shutdownNow();
+            logger.error("Error occurred while processing CCTVs:", e);
             Thread.currentThread().interrupt();
         }
     }
@@ -146,28 +151,29 @@ public class RtspUrlScan {
      * Verifies the availability of RTSP streams for the specified CCTV using the provided credentials.
      * If the streams are successfully located, the CCTV object is updated with the appropriate stream URLs
      * and credentials.
+     * <p>
+     * The candidate paths are described one after another on the session of the CCTV. The sweep
+     * stops as soon as the CCTV refuses the credential, since a camera checks the credential before
+     * it looks up the path, and every further refused request counts towards its lockout.
      *
      * @param cctv       the CCTV object to be validated and updated with stream URLs and credentials
      * @param credential the credentials used to authenticate and locate RTSP streams for the CCTV
+     * @param session    the RTSP session with the CCTV
      * @return true if at least one stream URL is successfully found and updated for the CCTV, false otherwise
      */
-    private static boolean check(Cctv cctv, Credential credential) {
-        if (cctv.hasProfile()) {
-            logger.info("CCTV with IP {} already has profile(s).", cctv.getIp());
-            cctv.removeRtspPort();
-            return true;
-        }
-
+    private static boolean check(Cctv cctv, Credential credential, RtspUrlChecker.Session session) {
         RtspUrl rtspUrl = new RtspUrl();
         rtspUrl.setHost(cctv.getIp());
         rtspUrl.setPort(cctv.getPort());
         rtspUrl.setUsername(credential.getUsername());
         rtspUrl.setPassword(credential.getPassword());
 
-        boolean nainStreamFound = mainStreamPaths.parallelStream().anyMatch(mainStreamPath -> check(cctv, rtspUrl, mainStreamPath, Cctv::setMainStreamUrl));
-        boolean subStreamFound = subStreamPaths.parallelStream().anyMatch(subStreamPath -> check(cctv, rtspUrl, subStreamPath, Cctv::setSubStreamUrl));
+        RtspUrlChecker.Result mainStream = check(cctv, credential, session, rtspUrl, mainStreamPaths, Cctv::setMainStreamUrl);
+        // Skip the sub streams if the credential was refused or the CCTV stopped answering
+        RtspUrlChecker.Result subStream = mainStream == RtspUrlChecker.Result.UNAUTHORIZED || !session.isConnected() ? mainStream
+                : check(cctv, credential, session, rtspUrl, subStreamPaths, Cctv::setSubStreamUrl);
 
-        if (nainStreamFound || subStreamFound) {
+        if (mainStream == RtspUrlChecker.Result.AVAILABLE || subStream == RtspUrlChecker.Result.AVAILABLE) {
             cctv.removeRtspPort(); // Reset RTSP port that it does not get re-selected with new credentials
             cctv.setUsername(credential.getUsername());
             cctv.setPassword(credential.getPassword());
@@ -176,29 +182,47 @@ public class RtspUrlScan {
     }
 
     /**
-     * Checks the availability of an RTSP URL composed of the given RTSP host and path,
-     * and sets the URL on the specified Cctv object if available.
+     * Checks the candidate paths in turn on the session of the CCTV, and sets the URL of the
+     * first available one on the specified Cctv object.
      *
-     * @param cctv     the Cctv object to update if the RTSP URL is available
-     * @param rtspHost the RTSP host to be used in constructing the URL
-     * @param rtspPath the RTSP path to be used in constructing the URL
-     * @param setter   a BiConsumer to set the RTSP URL on the given Cctv object
-     * @return true if the RTSP URL is available and successfully set, false otherwise
+     * @param cctv       the Cctv object to update if an RTSP URL is available
+     * @param credential the credential to authenticate with
+     * @param session    the RTSP session with the CCTV
+     * @param rtspHost   the RTSP host to be used in constructing the URL
+     * @param rtspPaths  the RTSP paths to be used in constructing the URL
+     * @param setter     a BiConsumer to set the RTSP URL on the given Cctv object
+     * @return {@link RtspUrlChecker.Result#AVAILABLE} if a URL was found and set,
+     * {@link RtspUrlChecker.Result#UNAUTHORIZED} if the credential was refused, or the result
+     * of the last path checked otherwise
      */
-    private static boolean check(Cctv cctv, RtspUrl rtspHost, RtspUrl rtspPath, BiConsumer<Cctv, String> setter) {
-        try {
-            String rtspUrlStr = new RtspUrl(rtspHost, rtspPath).getRtspUrl();
-            logger.info("Is RTSP URL available: {}", rtspUrlStr);
-            if (RtspUrlChecker.isRtspUrlAvailable(rtspUrlStr)) {
-                logger.info("RTSP URL is available: {}", rtspUrlStr);
-                setter.accept(cctv, rtspUrlStr);
-                return true;
-            } else {
-                logger.warn("RTSP URL is not available: {}", rtspUrlStr);
+    private static RtspUrlChecker.Result check(Cctv cctv, Credential credential, RtspUrlChecker.Session session,
+                                               RtspUrl rtspHost, Set<RtspUrl> rtspPaths, BiConsumer<Cctv, String> setter) {
+        RtspUrlChecker.Result result = RtspUrlChecker.Result.NOT_FOUND;
+        for (RtspUrl rtspPath : rtspPaths) {
+            RtspUrl candidate = new RtspUrl(rtspHost, rtspPath);
+            result = session.check(candidate, credential);
+
+            switch (result) {
+                case AVAILABLE -> {
+                    try {
+                        String rtspUrlStr = candidate.getRtspUrl();
+                        logger.info("RTSP URL is available: {}", rtspUrlStr);
+                        setter.accept(cctv, rtspUrlStr);
+                        return result;
+                    } catch (Exception e) {
+                        logger.warn("Failed to build RTSP URL: {}", candidate, e);
+                    }
+                }
+                case UNAUTHORIZED -> {
+                    logger.warn("CCTV with IP {} refused the credential of {}.", cctv.getIp(), credential.getUsername());
+                    return result;
+                }
+                default -> {
+                    if (!session.isConnected())
+                        return result;
+                }
             }
-        } catch (Exception e) {
-            logger.warn("Failed to check RTSP URL: {}", rtspHost, e);
         }
-        return false;
+        return result;
     }
 }
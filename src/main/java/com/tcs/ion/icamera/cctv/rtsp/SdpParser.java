@@ -0,0 +1,202 @@
+package com.tcs.ion.icamera.cctv.rtsp;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The SdpParser class reads the properties of the video stream from the SDP a camera
+ * sends in answer to a DESCRIBE request (RFC 8866). The codec comes from the
+ * {@code rtpmap} attribute of the first video media description, and the resolution and
+ * frame rate from the sequence parameter set in its {@code fmtp} attribute: the
+ * {@code sprop-parameter-sets} of H.264 (RFC 6184) or the {@code sprop-sps} of H.265
+ * (RFC 7798). The frame rate and bitrate announced by the {@code framerate} and
+ * {@code b=AS} lines are used where present, and the {@code x-dimensions} and
+ * {@code cliprect} lines some cameras send stand in for a missing SPS.
+ * <p>
+ * This class contains static methods and cannot be instantiated.
+ */
+class SdpParser {
+    private static final Logger logger = LogManager.getLogger(SdpParser.class);
+
+    private SdpParser() {
+    }
+
+    /**
+     * Parses the first video media description of an SDP.
+     *
+     * @param sdp the SDP of the stream
+     * @return the properties of the video stream, or null if the SDP describes no video
+     */
+    static Video parse(String sdp) {
+        Map<String, String> rtpmaps = new HashMap<>();
+        Map<String, Map<String, String>> fmtps = new HashMap<>();
+        String payloadType = null;
+        boolean inSession = true;
+        boolean inVideo = false;
+        boolean videoDone = false;
+        int sessionBitrate = 0;
+        int bitrate = 0;
+        double frameRate = 0;
+        int width = 0;
+        int height = 0;
+
+        for (String line : sdp.split("\r?\n")) {
+            if (line.length() < 2 || line.charAt(1) != '=')
+                continue;
+            char type = line.charAt(0);
+            String value = line.substring(2).trim();
+
+            if (type == 'm') {
+                // Only the first video media description is read
+                inSession = false;
+                videoDone |= inVideo;
+                inVideo = !videoDone && value.startsWith("video ");
+                if (inVideo) {
+                    // m=video 0 RTP/AVP 96
+                    String[] fields = value.split("\\s+");
+                    payloadType = fields.length > 3 ? fields[3] : null;
+                }
+            } else if (type == 'b' && (inVideo || inSession)) {
+                int kbps = parseBandwidth(value);
+                if (inVideo)
+                    bitrate = kbps;
+                else
+                    sessionBitrate = kbps;
+            } else if (type == 'a' && inVideo) {
+                int colon = value.indexOf(':');
+                String name = colon < 0 ? value : value.substring(0, colon);
+                String argument = colon < 0 ? "" : value.substring(colon + 1).trim();
+                switch (name) {
+                    case "rtpmap" -> {
+                        // a=rtpmap:96 H264/90000
+                        String[] fields = argument.split("\\s+", 2);
+                        if (fields.length == 2)
+                            rtpmaps.put(fields[0], fields[1].split("/")[0]);
+                    }
+                    case "fmtp" -> {
+                        // a=fmtp:96 packetization-mode=1;sprop-parameter-sets=Z2QAH6zZQFAFuhAAAAMAEAAAAwPI8YMZYA==,aOvjyyLA
+                        String[] fields = argument.split("\\s+", 2);
+                        if (fields.length == 2)
+                            fmtps.put(fields[0], parseParameters(fields[1]));
+                    }
+                    case "framerate", "x-framerate" -> frameRate = parseDouble(argument);
+                    case "x-dimensions" -> {
+                        // a=x-dimensions:1920,1080
+                        String[] fields = argument.split(",");
+                        if (fields.length == 2) {
+                            width = (int) parseDouble(fields[0]);
+                            height = (int) parseDouble(fields[1]);
+                        }
+                    }
+                    case "cliprect" -> {
+                        // a=cliprect:0,0,1080,1920 gives the top, left, bottom and right edges
+                        String[] fields = argument.split(",");
+                        if (fields.length == 4 && width == 0) {
+                            width = (int) (parseDouble(fields[3]) - parseDouble(fields[1]));
+                            height = (int) (parseDouble(fields[2]) - parseDouble(fields[0]));
+                        }
+                    }
+                    default -> {
+                    }
+                }
+            }
+        }
+
+        if (payloadType == null)
+            return null;
+
+        String encoding = getEncoding(payloadType, rtpmaps.get(payloadType));
+        SpsParser.Sps sps = parseSps(encoding, fmtps.getOrDefault(payloadType, Map.of()));
+        if (sps != null && sps.width() > 0 && sps.height() > 0) {
+            width = sps.width();
+            height = sps.height();
+            if (frameRate <= 0)
+                frameRate = sps.frameRate();
+        }
+        // b=AS is in kilobits per second, while FFmpeg reports the bitrate in bits per second
+        return new Video(encoding, width, height, frameRate, 1000 * (bitrate > 0 ? bitrate : sessionBitrate));
+    }
+
+    // The codec name FFmpeg gives the same stream, so that either way of probing fills the profile alike
+    private static String getEncoding(String payloadType, String encodingName) {
+        if (encodingName == null) {
+            // Static payload types of RFC 3551, which need no rtpmap
+            return switch (payloadType) {
+                case "26" -> "mjpeg";
+                case "32" -> "mpeg1video";
+                case "34" -> "h263";
+                default -> null;
+            };
+        }
+        return switch (encodingName.toUpperCase(Locale.ROOT)) {
+            case "H264" -> "h264";
+            case "H265", "HEVC" -> "hevc";
+            case "JPEG" -> "mjpeg";
+            case "MP4V-ES" -> "mpeg4";
+            default -> encodingName.toLowerCase(Locale.ROOT);
+        };
+    }
+
+    private static SpsParser.Sps parseSps(String encoding, Map<String, String> parameters) {
+        try {
+            if ("h264".equals(encoding) && parameters.containsKey("sprop-parameter-sets"))
+                return SpsParser.parseH264(Base64.getDecoder().decode(parameters.get("sprop-parameter-sets").split(",")[0].trim()));
+            if ("hevc".equals(encoding) && parameters.containsKey("sprop-sps"))
+                return SpsParser.parseH265(Base64.getDecoder().decode(parameters.get("sprop-sps").split(",")[0].trim()));
+        } catch (IllegalArgumentException e) {
+            logger.debug("Invalid SPS in SDP: {}", e.getMessage());
+        }
+        return null;
+    }
+
+    // Split the format parameters of an fmtp line, whose Base64 values may end in '='
+    private static Map<String, String> parseParameters(String parameters) {
+        Map<String, String> values = new HashMap<>();
+        for (String parameter : parameters.split(";")) {
+            int equals = parameter.indexOf('=');
+            if (equals > 0)
+                values.put(parameter.substring(0, equals).trim().toLowerCase(Locale.ROOT), parameter.substring(equals + 1).trim());
+        }
+        return values;
+    }
+
+    // b=AS:512 gives the application-specific maximum bandwidth in kilobits per second
+    private static int parseBandwidth(String value) {
+        return value.startsWith("AS:") ? (int) parseDouble(value.substring(3)) : 0;
+    }
+
+    private static double parseDouble(String value) {
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * The properties of a video stream, as described by an SDP or found by FFmpeg.
+     *
+     * @param encoding  the codec, named as by FFmpeg such as "h264" or "hevc", or null if unknown
+     * @param width     the width of the picture in pixels, or zero if unknown
+     * @param height    the height of the picture in pixels, or zero if unknown
+     * @param frameRate the frame rate in frames per second, or zero if unknown
+     * @param bitrate   the bitrate in bits per second, or zero if unknown
+     */
+    record Video(String encoding, int width, int height, double frameRate, int bitrate) {
+
+        /**
+         * Checks whether the SDP gave everything a probe with FFmpeg would, apart from the
+         * bitrate, which cameras often leave out of both.
+         *
+         * @return {@code true} if the codec, resolution and frame rate are all known
+         */
+        boolean isComplete() {
+            return encoding != null && width > 0 && height > 0 && frameRate > 0;
+        }
+    }
+}
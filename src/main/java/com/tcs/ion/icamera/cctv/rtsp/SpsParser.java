@@ -0,0 +1,436 @@
+package com.tcs.ion.icamera.cctv.rtsp;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * The SpsParser class decodes the few fields of an H.264 or H.265 sequence parameter set
+ * (SPS) that describe a video stream: the picture size and, where the encoder signals it
+ * in the timing information of the VUI, the frame rate. Cameras send the SPS in the SDP of a DESCRIBE response, so the size of
+ * a stream can be found without receiving or decoding any of it.
+ * <p>
+ * Only the syntax elements up to the fields needed are read, following ITU-T H.264
+ * section 7.3.2.1 and H.265 section 7.3.2.2 with annex E; everything after them is
+ * ignored. An SPS whose frame rate cannot be read still gives its picture size.
+ * <p>
+ * This class contains static methods and cannot be instantiated.
+ */
+class SpsParser {
+    // Profiles of H.264 whose SPS carries the chroma format, bit depths and scaling matrices
+    private static final int[] H264_HIGH_PROFILES = {100, 110, 122, 244, 44, 83, 86, 118, 128, 138, 139, 134, 135};
+    private static final int H264_NAL_SPS = 7;
+    private static final int H265_NAL_SPS = 33;
+    // Limits of H.265 on the counts read, so that a corrupt SPS cannot make the parser loop for long
+    private static final int H265_MAX_SHORT_TERM_REF_PIC_SETS = 64;
+    private static final int H265_MAX_DELTA_POCS = 16;
+    private static final int H265_MAX_DELTA_POC_MINUS1 = 32767;
+    private static final int H265_MAX_LONG_TERM_REF_PICS = 32;
+    private static final int H265_MAX_POC_LSB_BITS = 16;
+
+    private SpsParser() {
+    }
+
+    /**
+     * Decodes an H.264 SPS NAL unit.
+     *
+     * @param nal the NAL unit, starting with its header byte
+     * @return the picture size and frame rate, or null if the NAL unit is not a valid SPS
+     */
+    static Sps parseH264(byte[] nal) {
+        if (nal.length < 4 || (nal[0] & 0x1f) != H264_NAL_SPS)
+            return null;
+
+        try {
+            BitReader reader = new BitReader(unescape(nal, 1));
+            int profileIdc = reader.bits(8);
+            reader.skip(16); // constraint flags and level_idc
+            reader.ue(); // seq_parameter_set_id
+
+            int chromaFormatIdc = 1;
+            boolean separateColourPlane = false;
+            if (isHighProfile(profileIdc)) {
+                chromaFormatIdc = reader.ue();
+                if (chromaFormatIdc == 3)
+                    separateColourPlane = reader.flag();
+                reader.ue(); // bit_depth_luma_minus8
+                reader.ue(); // bit_depth_chroma_minus8
+                reader.skip(1); // qpprime_y_zero_transform_bypass_flag
+                if (reader.flag()) { // seq_scaling_matrix_present_flag
+                    for (int i = 0; i < (chromaFormatIdc != 3 ? 8 : 12); i++) {
+                        if (reader.flag())
+                            skipScalingList(reader, i < 6 ? 16 : 64);
+                    }
+                }
+            }
+
+            reader.ue(); // log2_max_frame_num_minus4
+            int picOrderCntType = reader.ue();
+            if (picOrderCntType == 0) {
+                reader.ue(); // log2_max_pic_order_cnt_lsb_minus4
+            } else if (picOrderCntType == 1) {
+                reader.skip(1); // delta_pic_order_always_zero_flag
+                reader.se(); // offset_for_non_ref_pic
+                reader.se(); // offset_for_top_to_bottom_field
+                int cycle = reader.ue();
+                for (int i = 0; i < cycle; i++)
+                    reader.se(); // offset_for_ref_frame
+            }
+            reader.ue(); // max_num_ref_frames
+            reader.skip(1); // gaps_in_frame_num_value_allowed_flag
+
+            int widthInMbs = reader.ue() + 1;
+            int heightInMapUnits = reader.ue() + 1;
+            boolean frameMbsOnly = reader.flag();
+            if (!frameMbsOnly)
+                reader.skip(1); // mb_adaptive_frame_field_flag
+            reader.skip(1); // direct_8x8_inference_flag
+
+            int width = widthInMbs * 16;
+            int height = (frameMbsOnly ? 1 : 2) * heightInMapUnits * 16;
+            if (reader.flag()) { // frame_cropping_flag
+                int chromaArrayType = separateColourPlane ? 0 : chromaFormatIdc;
+                int cropUnitX = chromaArrayType == 0 ? 1 : chromaArrayType == 3 ? 1 : 2;
+                int cropUnitY = (chromaArrayType == 0 ? 1 : chromaArrayType == 1 ? 2 : 1) * (frameMbsOnly ? 1 : 2);
+                width -= cropUnitX * (reader.ue() + reader.ue());
+                height -= cropUnitY * (reader.ue() + reader.ue());
+            }
+
+            double frameRate = 0;
+            if (reader.flag()) // vui_parameters_present_flag
+                frameRate = readH264FrameRate(reader);
+
+            return new Sps(width, height, frameRate);
+        } catch (IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    // Read the VUI up to the timing information, which gives the frame rate if the encoder signals it
+    private static double readH264FrameRate(BitReader reader) {
+        skipVuiPictureInfo(reader);
+        if (!reader.flag()) // timing_info_present_flag
+            return 0;
+
+        long numUnitsInTick = reader.bits(32) & 0xffffffffL;
+        long timeScale = reader.bits(32) & 0xffffffffL;
+        // A frame is two fields, each numUnitsInTick long
+        return numUnitsInTick == 0 ? 0 : timeScale / (2.0 * numUnitsInTick);
+    }
+
+    // The aspect ratio, overscan, video signal and chroma location of the VUI, which H.264 and H.265 share
+    private static void skipVuiPictureInfo(BitReader reader) {
+        if (reader.flag()) { // aspect_ratio_info_present_flag
+            if (reader.bits(8) == 255) // aspect_ratio_idc is Extended_SAR
+                reader.skip(32); // sar_width and sar_height
+        }
+        if (reader.flag()) // overscan_info_present_flag
+            reader.skip(1); // overscan_appropriate_flag
+        if (reader.flag()) { // video_signal_type_present_flag
+            reader.skip(4); // video_format and video_full_range_flag
+            if (reader.flag()) // colour_description_present_flag
+                reader.skip(24); // colour_primaries, transfer_characteristics and matrix_coefficients
+        }
+        if (reader.flag()) { // chroma_loc_info_present_flag
+            reader.ue();
+            reader.ue();
+        }
+    }
+
+    /**
+     * Decodes an H.265 SPS NAL unit. The frame rate is read from the timing information
+     * of the VUI at the end of the SPS, which needs every syntax element before it to be
+     * walked, including the short-term reference picture sets, but nothing from the
+     * other parameter sets.
+     *
+     * @param nal the NAL unit, starting with its two header bytes
+     * @return the picture size and frame rate, or null if the NAL unit is not a valid SPS
+     */
+    static Sps parseH265(byte[] nal) {
+        if (nal.length < 4 || ((nal[0] >> 1) & 0x3f) != H265_NAL_SPS)
+            return null;
+
+        try {
+            BitReader reader = new BitReader(unescape(nal, 2));
+            reader.skip(4); // sps_video_parameter_set_id
+            int maxSubLayersMinus1 = reader.bits(3);
+            reader.skip(1); // sps_temporal_id_nesting_flag
+
+            // profile_tier_level: the general profile, tier and level take 88 bits and 8 bits
+            reader.skip(88 + 8);
+            boolean[] subLayerProfilePresent = new boolean[maxSubLayersMinus1];
+            boolean[] subLayerLevelPresent = new boolean[maxSubLayersMinus1];
+            for (int i = 0; i < maxSubLayersMinus1; i++) {
+                subLayerProfilePresent[i] = reader.flag();
+                subLayerLevelPresent[i] = reader.flag();
+            }
+            if (maxSubLayersMinus1 > 0)
+                reader.skip(2 * (8 - maxSubLayersMinus1)); // reserved_zero_2bits
+            for (int i = 0; i < maxSubLayersMinus1; i++) {
+                if (subLayerProfilePresent[i])
+                    reader.skip(88);
+                if (subLayerLevelPresent[i])
+                    reader.skip(8);
+            }
+
+            reader.ue(); // sps_seq_parameter_set_id
+            int chromaFormatIdc = reader.ue();
+            boolean separateColourPlane = chromaFormatIdc == 3 && reader.flag();
+            int width = reader.ue(); // pic_width_in_luma_samples
+            int height = reader.ue(); // pic_height_in_luma_samples
+
+            if (reader.flag()) { // conformance_window_flag
+                int chromaArrayType = separateColourPlane ? 0 : chromaFormatIdc;
+                int subWidthC = chromaArrayType == 1 || chromaArrayType == 2 ? 2 : 1;
+                int subHeightC = chromaArrayType == 1 ? 2 : 1;
+                width -= subWidthC * (reader.ue() + reader.ue());
+                height -= subHeightC * (reader.ue() + reader.ue());
+            }
+
+            double frameRate = 0;
+            try {
+                frameRate = readH265FrameRate(reader, maxSubLayersMinus1);
+            } catch (IndexOutOfBoundsException e) {
+                // The picture size is known, and a stream whose frame rate cannot be read is opened to find it
+            }
+            return new Sps(width, height, frameRate);
+        } catch (IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    // Read the rest of the SPS up to the timing information of the VUI
+    private static double readH265FrameRate(BitReader reader, int maxSubLayersMinus1) {
+        reader.ue(); // bit_depth_luma_minus8
+        reader.ue(); // bit_depth_chroma_minus8
+        int pocLsbBits = reader.ue(H265_MAX_POC_LSB_BITS - 4) + 4; // log2_max_pic_order_cnt_lsb_minus4
+        boolean subLayerOrderingInfoPresent = reader.flag();
+        for (int i = subLayerOrderingInfoPresent ? 0 : maxSubLayersMinus1; i <= maxSubLayersMinus1; i++) {
+            reader.ue(); // sps_max_dec_pic_buffering_minus1
+            reader.ue(); // sps_max_num_reorder_pics
+            reader.ue(); // sps_max_latency_increase_plus1
+        }
+        for (int i = 0; i < 6; i++)
+            reader.ue(); // the sizes of the coding and transform blocks and the depths of the transform hierarchy
+        if (reader.flag() && reader.flag()) // scaling_list_enabled_flag and sps_scaling_list_data_present_flag
+            skipH265ScalingListData(reader);
+        reader.skip(2); // amp_enabled_flag and sample_adaptive_offset_enabled_flag
+        if (reader.flag()) { // pcm_enabled_flag
+            reader.skip(8); // pcm_sample_bit_depth_luma_minus1 and pcm_sample_bit_depth_chroma_minus1
+            reader.ue(); // log2_min_pcm_luma_coding_block_size_minus3
+            reader.ue(); // log2_diff_max_min_pcm_luma_coding_block_size
+            reader.skip(1); // pcm_loop_filter_disabled_flag
+        }
+        skipH265ShortTermRefPicSets(reader);
+        if (reader.flag()) { // long_term_ref_pics_present_flag
+            int count = reader.ue(H265_MAX_LONG_TERM_REF_PICS);
+            for (int i = 0; i < count; i++)
+                reader.skip(pocLsbBits + 1); // lt_ref_pic_poc_lsb_sps and used_by_curr_pic_lt_sps_flag
+        }
+        reader.skip(2); // sps_temporal_mvp_enabled_flag and strong_intra_smoothing_enabled_flag
+        if (!reader.flag()) // vui_parameters_present_flag
+            return 0;
+
+        skipVuiPictureInfo(reader);
+        reader.skip(1); // neutral_chroma_indication_flag
+        boolean fieldSeq = reader.flag();
+        reader.skip(1); // frame_field_info_present_flag
+        if (reader.flag()) { // default_display_window_flag
+            for (int i = 0; i < 4; i++)
+                reader.ue(); // the offsets of the window
+        }
+        if (!reader.flag()) // vui_timing_info_present_flag
+            return 0;
+
+        long numUnitsInTick = reader.bits(32) & 0xffffffffL;
+        long timeScale = reader.bits(32) & 0xffffffffL;
+        if (numUnitsInTick == 0)
+            return 0;
+        // A tick is a picture, which is a field rather than a frame in a stream of fields
+        double pictureRate = (double) timeScale / numUnitsInTick;
+        return fieldSeq ? pictureRate / 2 : pictureRate;
+    }
+
+    private static void skipH265ScalingListData(BitReader reader) {
+        for (int sizeId = 0; sizeId < 4; sizeId++) {
+            for (int matrixId = 0; matrixId < 6; matrixId += sizeId == 3 ? 3 : 1) {
+                if (!reader.flag()) { // scaling_list_pred_mode_flag
+                    reader.ue(); // scaling_list_pred_matrix_id_delta
+                } else {
+                    if (sizeId > 1)
+                        reader.se(); // scaling_list_dc_coef_minus8
+                    for (int i = 0; i < Math.min(64, 1 << (4 + (sizeId << 1))); i++)
+                        reader.se(); // scaling_list_delta_coef
+                }
+            }
+        }
+    }
+
+    /**
+     * Skips the short-term reference picture sets of an SPS. A set may be predicted from the
+     * one before it, and the number of its syntax elements then depends on the pictures of
+     * that set, so the delta POCs of every set are derived as in H.265 section 7.4.8.
+     */
+    private static void skipH265ShortTermRefPicSets(BitReader reader) {
+        int count = reader.ue(H265_MAX_SHORT_TERM_REF_PIC_SETS);
+        int[][] negative = new int[count][];
+        int[][] positive = new int[count][];
+        for (int idx = 0; idx < count; idx++) {
+            if (idx != 0 && reader.flag()) { // inter_ref_pic_set_prediction_flag
+                // An SPS always predicts from the set before, as only a slice header sends delta_idx_minus1
+                int[] refNegative = negative[idx - 1];
+                int[] refPositive = positive[idx - 1];
+                int sign = reader.bits(1); // delta_rps_sign
+                int deltaRps = (1 - 2 * sign) * (reader.ue(H265_MAX_DELTA_POC_MINUS1) + 1); // abs_delta_rps_minus1
+                boolean[] useDelta = new boolean[refNegative.length + refPositive.length + 1];
+                for (int j = 0; j < useDelta.length; j++) {
+                    // use_delta_flag follows only a clear used_by_curr_pic_flag, and is set otherwise
+                    useDelta[j] = reader.flag() || reader.flag();
+                }
+
+                int[] pocs = new int[useDelta.length];
+                int negatives = 0;
+                for (int j = refPositive.length - 1; j >= 0; j--) {
+                    int poc = refPositive[j] + deltaRps;
+                    if (poc < 0 && useDelta[refNegative.length + j])
+                        pocs[negatives++] = poc;
+                }
+                if (deltaRps < 0 && useDelta[useDelta.length - 1])
+                    pocs[negatives++] = deltaRps;
+                for (int j = 0; j < refNegative.length; j++) {
+                    int poc = refNegative[j] + deltaRps;
+                    if (poc < 0 && useDelta[j])
+                        pocs[negatives++] = poc;
+                }
+                negative[idx] = Arrays.copyOf(pocs, negatives);
+
+                int positives = 0;
+                for (int j = refNegative.length - 1; j >= 0; j--) {
+                    int poc = refNegative[j] + deltaRps;
+                    if (poc > 0 && useDelta[j])
+                        pocs[positives++] = poc;
+                }
+                if (deltaRps > 0 && useDelta[useDelta.length - 1])
+                    pocs[positives++] = deltaRps;
+                for (int j = 0; j < refPositive.length; j++) {
+                    int poc = refPositive[j] + deltaRps;
+                    if (poc > 0 && useDelta[refNegative.length + j])
+                        pocs[positives++] = poc;
+                }
+                positive[idx] = Arrays.copyOf(pocs, positives);
+            } else {
+                negative[idx] = new int[reader.ue(H265_MAX_DELTA_POCS)]; // num_negative_pics
+                positive[idx] = new int[reader.ue(H265_MAX_DELTA_POCS)]; // num_positive_pics
+                int poc = 0;
+                for (int i = 0; i < negative[idx].length; i++) {
+                    poc -= reader.ue(H265_MAX_DELTA_POC_MINUS1) + 1; // delta_poc_s0_minus1
+                    reader.skip(1); // used_by_curr_pic_s0_flag
+                    negative[idx][i] = poc;
+                }
+                poc = 0;
+                for (int i = 0; i < positive[idx].length; i++) {
+                    poc += reader.ue(H265_MAX_DELTA_POC_MINUS1) + 1; // delta_poc_s1_minus1
+                    reader.skip(1); // used_by_curr_pic_s1_flag
+                    positive[idx][i] = poc;
+                }
+            }
+        }
+    }
+
+    private static boolean isHighProfile(int profileIdc) {
+        for (int profile : H264_HIGH_PROFILES) {
+            if (profile == profileIdc)
+                return true;
+        }
+        return false;
+    }
+
+    private static void skipScalingList(BitReader reader, int size) {
+        int lastScale = 8;
+        int nextScale = 8;
+        for (int j = 0; j < size && nextScale != 0; j++) {
+            nextScale = (lastScale + reader.se() + 256) % 256;
+            if (nextScale != 0)
+                lastScale = nextScale;
+        }
+    }
+
+    // Remove the emulation prevention bytes, the 0x03 an encoder inserts after every two zero bytes
+    private static byte[] unescape(byte[] nal, int headerLength) {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(nal.length);
+        int zeros = 0;
+        for (int i = headerLength; i < nal.length; i++) {
+            if (zeros >= 2 && nal[i] == 3) {
+                zeros = 0;
+                continue;
+            }
+            zeros = nal[i] == 0 ? zeros + 1 : 0;
+            payload.write(nal[i]);
+        }
+        return payload.toByteArray();
+    }
+
+    /**
+     * The fields of a sequence parameter set that describe a video stream.
+     *
+     * @param width     the width of the picture in pixels
+     * @param height    the height of the picture in pixels
+     * @param frameRate the frame rate in frames per second, or zero if the SPS does not signal it
+     */
+    record Sps(int width, int height, double frameRate) {
+    }
+
+    // Reads bits and Exp-Golomb codes, most significant bit first
+    private static final class BitReader {
+        private final byte[] data;
+        private int position;
+
+        BitReader(byte[] data) {
+            this.data = data;
+        }
+
+        boolean flag() {
+            return bits(1) == 1;
+        }
+
+        int bits(int count) {
+            int value = 0;
+            for (int i = 0; i < count; i++) {
+                if (position >= data.length * 8)
+                    throw new IndexOutOfBoundsException("SPS ends before bit " + position);
+                value = (value << 1) | ((data[position >> 3] >> (7 - (position & 7))) & 1);
+                position++;
+            }
+            return value;
+        }
+
+        void skip(int count) {
+            if (position + count > data.length * 8)
+                throw new IndexOutOfBoundsException("SPS ends before bit " + (position + count));
+            position += count;
+        }
+
+        // Unsigned Exp-Golomb code
+        int ue() {
+            int leadingZeros = 0;
+            while (!flag()) {
+                if (++leadingZeros > 31)
+                    throw new IndexOutOfBoundsException("Exp-Golomb code too long at bit " + position);
+            }
+            return (int) ((1L << leadingZeros) - 1 + (leadingZeros == 0 ? 0 : bits(leadingZeros) & 0xffffffffL));
+        }
+
+        // Unsigned Exp-Golomb code that the standard limits to a maximum
+        int ue(int max) {
+            int value = ue();
+            if (value < 0 || value > max)
+                throw new IndexOutOfBoundsException("Value " + value + " over the limit of " + max + " at bit " + position);
+            return value;
+        }
+
+        // Signed Exp-Golomb code
+        int se() {
+            int code = ue();
+            return (code & 1) == 1 ? (code + 1) / 2 : -(code / 2);
+        }
+    }
+}
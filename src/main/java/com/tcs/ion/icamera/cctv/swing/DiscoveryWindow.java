@@ -1,5 +1,6 @@
 package com.tcs.ion.icamera.cctv.swing;
 
+import com.tcs.ion.icamera.cctv.onvif.OnvifAnnouncementListener;
 import com.tcs.ion.icamera.cctv.onvif.OnvifDiscovery;
 
 public class DiscoveryWindow extends SwingWindow {
@@ -10,6 +11,10 @@ public class DiscoveryWindow extends SwingWindow {
     @Override
     protected void buildUiAndFunctionality() {
         add(createLabel("Discovering CCTVs. Please wait..."));
-        doInBackground(OnvifDiscovery::discover, () -> next(new DiscoveryStatusWindow()));
+        doInBackground(() -> {
+            // Keep picking up cameras that join or leave the network after the probe
+            OnvifAnnouncementListener.start();
+            OnvifDiscovery.discover();
+        }, () -> next(new DiscoveryStatusWindow()));
     }
 }
\ No newline at end of file
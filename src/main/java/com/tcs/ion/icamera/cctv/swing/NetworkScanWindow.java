@@ -32,7 +32,7 @@ public class NetworkScanWindow extends SwingWindow {
         JLabel rtspStatusLabel = createLabel("Scanning for RTSP hosts:");
 
         // Progress Bar
-        JProgressBar onvifProgressBar = runWithProgress(onvifStatusLabel, onvifScanTask, OnvifNetworkScan::getProgress, OnvifNetworkScan::getCount, OnvifNetworkScan::getTotalCount, OnvifNetworkScan::isComplete, this::next);
+        JProgressBar onvifProgressBar = runWithProgress(onvifStatusLabel, onvifScanTask, this::onvifProgress, this::onvifStatus, OnvifNetworkScan::isComplete, this::next);
         JProgressBar rtspProgressBar = runWithProgress(rtspStatusLabel, rtspScanTask, RtspPortScan::getProgress, RtspPortScan::getCount, RtspPortScan::getTotalCount, RtspPortScan::isComplete, this::next);
 
         // Add the components
@@ -42,6 +42,19 @@ public class NetworkScanWindow extends SwingWindow {
         add(rtspProgressBar);
     }
 
+    // Once the sweep is done, report the verification of the ONVIF candidates it found
+    private int onvifProgress() {
+        return OnvifNetworkScan.isVerifying() ? OnvifNetworkScan.getVerificationProgress() : OnvifNetworkScan.getProgress();
+    }
+
+    private String onvifStatus() {
+        if (OnvifNetworkScan.isVerifying()) {
+            int pending = OnvifNetworkScan.getVerificationTotalCount() - OnvifNetworkScan.getVerificationCount();
+            return String.format("Verifying %d candidates, %d of %d done.", pending, OnvifNetworkScan.getVerificationCount(), OnvifNetworkScan.getVerificationTotalCount());
+        }
+        return String.format("Scanning for ONVIF devices: %d of %d.", OnvifNetworkScan.getCount(), OnvifNetworkScan.getTotalCount());
+    }
+
     protected void next() {
         if (++completedTasks == TOTAL_TASKS) {
             next(new IdentifiedCctvWindow());
@@ -3,6 +3,8 @@ package com.tcs.ion.icamera.cctv.swing;
 import javax.swing.*;
 import javax.swing.filechooser.FileNameExtensionFilter;
 import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.io.File;
 import java.text.SimpleDateFormat;
 import java.util.Date;
@@ -10,6 +12,7 @@ import java.util.Timer;
 import java.util.TimerTask;
 import java.util.function.BooleanSupplier;
 import java.util.function.IntSupplier;
+import java.util.function.Supplier;
 
 public abstract class SwingWindow {
 
@@ -167,6 +170,36 @@ public abstract class SwingWindow {
         return loadingDialog;
     }
 
+    protected JDialog getLoadingDialog(IntSupplier progress, Supplier<String> status) {
+        JDialog loadingDialog = new JDialog(frame, "Please Wait", true);
+        JLabel loadingLabel = new JLabel(status.get());
+        loadingLabel.setHorizontalAlignment(SwingConstants.CENTER);
+        JProgressBar progressBar = createProgressBar();
+        loadingDialog.add(loadingLabel, BorderLayout.CENTER);
+        loadingDialog.add(progressBar, BorderLayout.SOUTH);
+        loadingDialog.setSize(300, 100);
+        loadingDialog.setLocationRelativeTo(frame);
+
+        Timer timer = new Timer();
+        TimerTask task = new TimerTask() {
+            @Override
+            public void run() {
+                progressBar.setValue(progress.getAsInt());
+                loadingLabel.setText(status.get());
+            }
+        };
+        timer.scheduleAtFixedRate(task, 0, 1000);
+
+        // Stop refreshing once the dialog is disposed
+        loadingDialog.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                timer.cancel();
+            }
+        });
+        return loadingDialog;
+    }
+
     protected JProgressBar runWithProgress(JLabel statusLabel, Runnable todo, IntSupplier progress, IntSupplier count, IntSupplier totalCount, BooleanSupplier isComplete, SwingWindow swingWindow) {
         JProgressBar progressBar = createProgressBar();
         Timer timer = new Timer();
@@ -189,13 +222,17 @@ public abstract class SwingWindow {
 
     protected JProgressBar runWithProgress(JLabel statusLabel, Runnable todo, IntSupplier progress, IntSupplier count, IntSupplier totalCount, BooleanSupplier isComplete, Runnable next) {
         String statusHead = statusLabel.getText();
+        return runWithProgress(statusLabel, todo, progress, () -> String.format("%s %d of %d.", statusHead, count.getAsInt(), totalCount.getAsInt()), isComplete, next);
+    }
+
+    protected JProgressBar runWithProgress(JLabel statusLabel, Runnable todo, IntSupplier progress, Supplier<String> status, BooleanSupplier isComplete, Runnable next) {
         JProgressBar progressBar = createProgressBar();
         Timer timer = new Timer();
         TimerTask task = new TimerTask() {
             @Override
             public void run() {
                 progressBar.setValue(progress.getAsInt());
-                statusLabel.setText(String.format("%s %d of %d.", statusHead, count.getAsInt(), totalCount.getAsInt()));
+                statusLabel.setText(status.get());
                 if (isComplete.getAsBoolean()) {
                     timer.cancel();
                     next.run();
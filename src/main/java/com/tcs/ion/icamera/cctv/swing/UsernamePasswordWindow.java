@@ -76,7 +76,9 @@ public class UsernamePasswordWindow extends SwingWindow {
 
     // Method to simulate task execution
     private void runTask() {
-        JDialog loadingDialog = getLoadingDialog("Verifying remaining CCTVs..");
+        JDialog loadingDialog = getLoadingDialog(OnvifEnquiry::getProgress, () -> OnvifEnquiry.isComplete()
+                ? "Verifying remaining CCTVs.."
+                : String.format("Verifying ONVIF CCTVs, %d of %d done.", OnvifEnquiry.getCount(), OnvifEnquiry.getTotalCount()));
 
         SwingWorker<Void, Void> worker = new SwingWorker<>() {
             @Override
@@ -1,5 +1,7 @@
 package com.tcs.ion.icamera.cctv.util;
 
+import java.util.Objects;
+
 public class Credential {
     private String username;
     private String password;
@@ -26,6 +28,18 @@ public class Credential {
         this.password = password;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Credential that)) return false;
+        return Objects.equals(username, that.username) && Objects.equals(password, that.password);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(username, password);
+    }
+
     @Override
     public String toString() {
         return "Username: " + (username == null ? "[blank]" : ("`" + username + "`")) + ", Password: " + (password == null ? "[blank]" : ("`" + password + "`"));
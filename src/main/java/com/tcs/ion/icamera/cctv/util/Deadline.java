@@ -0,0 +1,70 @@
+package com.tcs.ion.icamera.cctv.util;
+
+/**
+ * A time budget that is shared by a sequence of network calls. The budget starts
+ * running when the deadline is created, and every call made under it uses at most
+ * the time that is left, so a slow device cannot hold up the sequence for longer
+ * than the budget however many calls remain.
+ */
+public class Deadline {
+    private final long budget;
+    private final long expiresAtNanos;
+
+    private Deadline(long budget) {
+        this.budget = budget;
+        this.expiresAtNanos = System.nanoTime() + budget * 1_000_000;
+    }
+
+    /**
+     * Creates a deadline that expires once the given budget has elapsed.
+     *
+     * @param budget the budget in milliseconds
+     * @return the deadline
+     */
+    public static Deadline after(long budget) {
+        return new Deadline(budget);
+    }
+
+    /**
+     * Retrieves the budget the deadline was created with.
+     *
+     * @return the budget in milliseconds
+     */
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Retrieves the time left before the deadline expires.
+     *
+     * @return the remaining time in milliseconds, or zero if the deadline has expired
+     */
+    public long remaining() {
+        return Math.max(0, (expiresAtNanos - System.nanoTime()) / 1_000_000);
+    }
+
+    /**
+     * Checks whether the deadline has expired.
+     *
+     * @return {@code true} if no time is left, {@code false} otherwise
+     */
+    public boolean isExpired() {
+        return remaining() == 0;
+    }
+
+    /**
+     * Limits a timeout to the time left before the deadline expires. The result is
+     * never zero, which socket timeouts would take to mean no timeout at all.
+     *
+     * @param timeout the timeout in milliseconds
+     * @return the smaller of the timeout and the remaining time, in milliseconds
+     */
+    public int cap(int timeout) {
+        return (int) Math.max(1, Math.min(timeout, remaining()));
+    }
+
+    @Override
+    public String toString() {
+        return "deadline of " + budget + " ms";
+    }
+}
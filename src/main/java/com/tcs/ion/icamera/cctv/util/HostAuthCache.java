@@ -0,0 +1,122 @@
+package com.tcs.ion.icamera.cctv.util;
+
+import org.apache.http.Header;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.auth.AuthScheme;
+import org.apache.http.auth.AuthenticationException;
+import org.apache.http.auth.Credentials;
+import org.apache.http.auth.MalformedChallengeException;
+import org.apache.http.client.AuthCache;
+import org.apache.http.conn.SchemePortResolver;
+import org.apache.http.conn.UnsupportedSchemeException;
+import org.apache.http.client.config.AuthSchemes;
+import org.apache.http.impl.auth.DigestScheme;
+import org.apache.http.impl.client.TargetAuthenticationStrategy;
+import org.apache.http.impl.conn.DefaultSchemePortResolver;
+import org.apache.http.protocol.HttpContext;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An authentication cache that keeps the authentication scheme each camera last
+ * accepted, so that later requests to the camera authenticate up front instead of
+ * waiting for a 401 challenge.
+ * <p>
+ * Unlike the cache of the HTTP client, which stores a serialised copy of each scheme,
+ * this cache keeps the scheme itself. A Digest scheme keeps the nonce of the camera
+ * and counts the requests made with it, so every request sends the next nonce count
+ * for the same nonce, as the camera expects, rather than repeating the count the
+ * scheme had when it was cached.
+ * <p>
+ * A scheme is kept with the credential it authenticated with, and a request sees it
+ * through the {@link #forCredential view} of its own credential only if the credential
+ * is the same. A request with another credential is challenged afresh, rather than
+ * sending the credential once on the cached nonce and again after the challenge.
+ */
+class HostAuthCache {
+    private final Map<HttpHost, Entry> schemes = new ConcurrentHashMap<>();
+    private final SchemePortResolver schemePortResolver = DefaultSchemePortResolver.INSTANCE;
+
+    /**
+     * Gives the cache as seen by the requests made with a credential.
+     *
+     * @param credential the credential of the request, or null if it has none
+     * @return an authentication cache that stores schemes against the credential and
+     *         only returns those that authenticated with it
+     */
+    AuthCache forCredential(Credential credential) {
+        return new AuthCache() {
+            @Override
+            public void put(HttpHost host, AuthScheme authScheme) {
+                schemes.put(key(host), new Entry(authScheme, credential));
+            }
+
+            @Override
+            public AuthScheme get(HttpHost host) {
+                Entry entry = schemes.get(key(host));
+                return entry != null && Objects.equals(entry.credential(), credential) ? entry.scheme() : null;
+            }
+
+            // A failed credential drops its own scheme, not the one another credential is using
+            @Override
+            public void remove(HttpHost host) {
+                schemes.computeIfPresent(key(host), (k, entry) -> Objects.equals(entry.credential(), credential) ? null : entry);
+            }
+
+            @Override
+            public void clear() {
+                schemes.clear();
+            }
+        };
+    }
+
+    // Hosts with and without the default port are the same camera
+    private HttpHost key(HttpHost host) {
+        if (host.getPort() > 0)
+            return host;
+        try {
+            return new HttpHost(host.getHostName(), schemePortResolver.resolve(host), host.getSchemeName());
+        } catch (UnsupportedSchemeException e) {
+            return host;
+        }
+    }
+
+    /**
+     * A Digest scheme that can be shared by the concurrent requests to a camera. The
+     * nonce count and the challenge it answers are updated under a lock, so that no two
+     * requests send the same nonce count.
+     */
+    static class SharedDigestScheme extends DigestScheme {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public synchronized void processChallenge(Header header) throws MalformedChallengeException {
+            super.processChallenge(header);
+        }
+
+        @Override
+        public synchronized Header authenticate(Credentials credentials, HttpRequest request, HttpContext context)
+                throws AuthenticationException {
+            return super.authenticate(credentials, request, context);
+        }
+    }
+
+    // A cached scheme and the credential it authenticated with
+    private record Entry(AuthScheme scheme, Credential credential) {
+    }
+
+    /**
+     * An authentication strategy that caches the Digest schemes cameras accept as well as
+     * the Basic ones, which are the only schemes the HTTP client caches by default.
+     */
+    static class CachingAuthenticationStrategy extends TargetAuthenticationStrategy {
+        @Override
+        protected boolean isCachable(AuthScheme authScheme) {
+            return super.isCachable(authScheme)
+                    || authScheme != null && authScheme.isComplete() && AuthSchemes.DIGEST.equalsIgnoreCase(authScheme.getSchemeName());
+        }
+    }
+}
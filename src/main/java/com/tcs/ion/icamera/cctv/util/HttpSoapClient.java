@@ -2,20 +2,149 @@ package com.tcs.ion.icamera.cctv.util;
 
 import com.tcs.ion.icamera.cctv.error.OnvifException;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpStatus;
+import org.apache.http.auth.AuthSchemeProvider;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.config.AuthSchemes;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
 import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.auth.BasicSchemeFactory;
+import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
 import org.apache.http.util.EntityUtils;
 
 import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
+/**
+ * Posts SOAP XML requests to ONVIF devices over a single shared HTTP client.
+ * <p>
+ * The client is backed by a pooling connection manager, so the several calls made to
+ * the same camera reuse a kept-alive connection instead of paying a new TCP handshake
+ * each. The number of connections is limited per camera and in total, and connections
+ * that stay idle are evicted in the background. Pool statistics are exposed for
+ * progress reporting.
+ * <p>
+ * The pool size defaults to {@value #DEFAULT_MAX_CONNECTIONS} connections in total and
+ * {@value #DEFAULT_MAX_CONNECTIONS_PER_ROUTE} per camera, and can be configured with the
+ * {@code cctv.http.maxConnections} and {@code cctv.http.maxConnectionsPerRoute} system
+ * properties.
+ * <p>
+ * Every request is bounded by a connect, a read and a total request timeout, which
+ * default to {@value #DEFAULT_CONNECT_TIMEOUT}, {@value #DEFAULT_READ_TIMEOUT} and
+ * {@value #DEFAULT_REQUEST_TIMEOUT} milliseconds and can be configured with the
+ * {@code cctv.http.connectTimeout}, {@code cctv.http.readTimeout} and
+ * {@code cctv.http.requestTimeout} system properties. A request posted under a
+ * {@link Deadline} is further limited to the time left before the deadline expires.
+ * <p>
+ * Requests can also be posted asynchronously, in which case each request runs on a
+ * virtual thread and holds a permit of a per-camera and a global in-flight limit while
+ * it is posted, so that hundreds of cameras can be enquired at once without flooding
+ * the weak CPU of any single camera. The limits default to
+ * {@value #DEFAULT_MAX_ASYNC_PER_HOST} requests per camera and
+ * {@value #DEFAULT_MAX_ASYNC_IN_FLIGHT} in total, and can be configured with the
+ * {@code cctv.http.maxPerHost} and {@code cctv.http.maxInFlight} system properties.
+ * <p>
+ * Cameras that ask for HTTP Basic or Digest authentication instead of, or as well as,
+ * the WS-Security header in the message are answered with the credential given with
+ * the request, so either kind of camera works without any setting. The scheme a camera
+ * accepted is kept, and later requests to the camera with the same credential
+ * authenticate up front with the cached Digest nonce and the next nonce count, so only
+ * the first request to a camera pays for the challenge.
+ */
 public class HttpSoapClient {
+    public static final int DEFAULT_MAX_CONNECTIONS = 200;
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 4;
+    public static final int DEFAULT_MAX_ASYNC_PER_HOST = 2;
+    public static final int DEFAULT_MAX_ASYNC_IN_FLIGHT = 256;
+
+    public static final int DEFAULT_CONNECT_TIMEOUT = 3000;
+    public static final int DEFAULT_READ_TIMEOUT = 5000;
+    public static final int DEFAULT_REQUEST_TIMEOUT = 10000;
+
+    private static final int CONNECT_TIMEOUT = Integer.getInteger("cctv.http.connectTimeout", DEFAULT_CONNECT_TIMEOUT);
+    private static final int READ_TIMEOUT = Integer.getInteger("cctv.http.readTimeout", DEFAULT_READ_TIMEOUT);
+    private static final int REQUEST_TIMEOUT = Integer.getInteger("cctv.http.requestTimeout", DEFAULT_REQUEST_TIMEOUT);
+
+    // Longest time an idle connection is kept alive when the camera does not say otherwise
+    private static final long KEEP_ALIVE_MILLIS = 30000;
+    // Idle time after which a connection is closed by the evictor
+    private static final long MAX_IDLE_MILLIS = 30000;
+    // Idle time after which a pooled connection is checked before it is reused
+    private static final int VALIDATE_AFTER_INACTIVITY_MILLIS = 2000;
+
+    private static final PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+    private static final CloseableHttpClient httpClient;
+    private static final HostAuthCache authCache = new HostAuthCache();
+
+    private static final ExecutorService asyncExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private static final int MAX_ASYNC_PER_HOST = Integer.getInteger("cctv.http.maxPerHost", DEFAULT_MAX_ASYNC_PER_HOST);
+    private static final int MAX_ASYNC_IN_FLIGHT = Integer.getInteger("cctv.http.maxInFlight", DEFAULT_MAX_ASYNC_IN_FLIGHT);
+    private static final Semaphore asyncPermits = new Semaphore(MAX_ASYNC_IN_FLIGHT, true);
+    private static final Map<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+    private static final ScheduledThreadPoolExecutor timer =
+            new ScheduledThreadPoolExecutor(1, Thread.ofPlatform().daemon().name("http-request-timer").factory());
+
+    static {
+        // Requests usually finish well before their timeout, so drop cancelled aborts straight away
+        timer.setRemoveOnCancelPolicy(true);
+
+        connectionManager.setMaxTotal(Integer.getInteger("cctv.http.maxConnections", DEFAULT_MAX_CONNECTIONS));
+        connectionManager.setDefaultMaxPerRoute(Integer.getInteger("cctv.http.maxConnectionsPerRoute", DEFAULT_MAX_CONNECTIONS_PER_ROUTE));
+        connectionManager.setValidateAfterInactivity(VALIDATE_AFTER_INACTIVITY_MILLIS);
+
+        // Honour the keep-alive of the camera, but never keep a connection longer than our own limit
+        ConnectionKeepAliveStrategy keepAliveStrategy = (response, context) -> {
+            long keepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            return keepAlive > 0 ? Math.min(keepAlive, KEEP_ALIVE_MILLIS) : KEEP_ALIVE_MILLIS;
+        };
+
+        httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setKeepAliveStrategy(keepAliveStrategy)
+                .evictIdleConnections(MAX_IDLE_MILLIS, TimeUnit.MILLISECONDS)
+                .evictExpiredConnections()
+                // Cameras are independent, so never share cookies between them
+                .disableCookieManagement()
+                // Cameras only ask for Basic or Digest, and a Digest scheme is shared by the requests to a camera
+                .setDefaultAuthSchemeRegistry(RegistryBuilder.<AuthSchemeProvider>create()
+                        .register(AuthSchemes.BASIC, new BasicSchemeFactory())
+                        .register(AuthSchemes.DIGEST, context -> new HostAuthCache.SharedDigestScheme())
+                        .build())
+                .setTargetAuthenticationStrategy(new HostAuthCache.CachingAuthenticationStrategy())
+                .build();
+    }
+
+    private HttpSoapClient() {
+    }
 
     /**
-     * Post a SOAP XML request to the given URL.
+     * Post a SOAP XML request to the given URL, within the default connect, read and
+     * total request timeouts.
      *
      * @param url The URL to post to.
      * @param xml The SOAP XML request.
@@ -23,29 +152,301 @@ public class HttpSoapClient {
      * @throws OnvifException If there is an error posting the request.
      */
     public static String postXml(String url, String xml) throws OnvifException {
-        try (CloseableHttpClient httpClient = HttpClients.createDefault()) {
-            // Set up the HTTP POST request
-            HttpPost httpPost = new HttpPost(url);
-            httpPost.setHeader("Content-Type", "application/soap+xml; charset=UTF-8");
-
-            // Set the request body to the SOAP XML
-            StringEntity entity = new StringEntity(xml, StandardCharsets.UTF_8);
-            httpPost.setEntity(entity);
-
-            try (CloseableHttpResponse response = httpClient.execute(httpPost)) {
-                HttpEntity responseEntity = response.getEntity();
-
-                // If there is no response, return null
-                if (responseEntity == null)
-                    return null;
-                else {
-                    // Otherwise return the response as a string
-                    return EntityUtils.toString(responseEntity, StandardCharsets.UTF_8);
+        return postXml(url, xml, Deadline.after(REQUEST_TIMEOUT));
+    }
+
+    /**
+     * Post a SOAP XML request to the given URL, giving up once the timeout elapses.
+     *
+     * @param url     The URL to post to.
+     * @param xml     The SOAP XML request.
+     * @param timeout The total request timeout in milliseconds.
+     * @return The response from the server.
+     * @throws OnvifException If there is an error posting the request.
+     */
+    public static String postXml(String url, String xml, int timeout) throws OnvifException {
+        return postXml(url, xml, Deadline.after(timeout));
+    }
+
+    /**
+     * Post a SOAP XML request to the given URL within what is left of the deadline.
+     * The connect, read and total request timeouts are reduced to the remaining time,
+     * and the request is not posted at all if the deadline has already expired.
+     *
+     * @param url      The URL to post to.
+     * @param xml      The SOAP XML request.
+     * @param deadline The deadline shared by the calls this request is part of.
+     * @return The response from the server.
+     * @throws OnvifException If there is an error posting the request or the deadline expires.
+     */
+    public static String postXml(String url, String xml, Deadline deadline) throws OnvifException {
+        return execute(newPost(url, xml), deadline, null);
+    }
+
+    /**
+     * Post a SOAP XML request to the given URL within what is left of the deadline,
+     * answering an HTTP authentication challenge of the camera with the credential.
+     *
+     * @param url        The URL to post to.
+     * @param xml        The SOAP XML request.
+     * @param deadline   The deadline shared by the calls this request is part of.
+     * @param credential The credential to authenticate with if the camera asks for HTTP authentication.
+     * @return The response from the server.
+     * @throws OnvifException If there is an error posting the request or the deadline expires.
+     */
+    public static String postXml(String url, String xml, Deadline deadline, Credential credential) throws OnvifException {
+        return execute(newPost(url, xml), deadline, credential);
+    }
+
+    /**
+     * Post a SOAP XML request to the given URL, giving up once the timeout elapses, and
+     * hand the response to the handler as it arrives instead of reading it into a string.
+     * The handler may read as little of the response as it needs; a connection whose
+     * response is not read to the end is closed rather than returned to the pool, so the
+     * rest of the response is never read.
+     *
+     * @param url     The URL to post to.
+     * @param xml     The SOAP XML request.
+     * @param timeout The total request timeout in milliseconds.
+     * @param handler The handler that reads the response.
+     * @param <T>     The type of the result of the handler.
+     * @return The result of the handler.
+     * @throws OnvifException If there is an error posting the request or reading the response.
+     */
+    public static <T> T postXml(String url, String xml, int timeout, ResponseHandler<? extends T> handler) throws OnvifException {
+        return execute(newPost(url, xml), Deadline.after(timeout), null, handler);
+    }
+
+    /**
+     * Post a SOAP XML request to the given URL without blocking the caller, within the
+     * default connect, read and total request timeouts.
+     *
+     * @param url The URL to post to.
+     * @param xml The SOAP XML request.
+     * @return A future completed with the response from the server, or exceptionally
+     * with an {@link OnvifException} if there is an error posting the request.
+     */
+    public static CompletableFuture<String> postXmlAsync(String url, String xml) {
+        // The timeout starts once the request holds its permits
+        return submit(url, xml, () -> Deadline.after(REQUEST_TIMEOUT), null);
+    }
+
+    /**
+     * Post a SOAP XML request to the given URL without blocking the caller, giving up
+     * once the timeout elapses.
+     *
+     * @param url     The URL to post to.
+     * @param xml     The SOAP XML request.
+     * @param timeout The total request timeout in milliseconds.
+     * @return A future completed with the response from the server, or exceptionally
+     * with an {@link OnvifException} if there is an error posting the request.
+     */
+    public static CompletableFuture<String> postXmlAsync(String url, String xml, int timeout) {
+        return submit(url, xml, () -> Deadline.after(timeout), null);
+    }
+
+    /**
+     * Post a SOAP XML request to the given URL without blocking the caller, within what
+     * is left of the deadline once the request holds its permits.
+     *
+     * @param url      The URL to post to.
+     * @param xml      The SOAP XML request.
+     * @param deadline The deadline shared by the calls this request is part of.
+     * @return A future completed with the response from the server, or exceptionally
+     * with an {@link OnvifException} if there is an error posting the request or the
+     * deadline expires.
+     */
+    public static CompletableFuture<String> postXmlAsync(String url, String xml, Deadline deadline) {
+        return submit(url, xml, () -> deadline, null);
+    }
+
+    /**
+     * Post a SOAP XML request to the given URL without blocking the caller, within what
+     * is left of the deadline once the request holds its permits, answering an HTTP
+     * authentication challenge of the camera with the credential.
+     *
+     * @param url        The URL to post to.
+     * @param xml        The SOAP XML request.
+     * @param deadline   The deadline shared by the calls this request is part of.
+     * @param credential The credential to authenticate with if the camera asks for HTTP authentication.
+     * @return A future completed with the response from the server, or exceptionally
+     * with an {@link OnvifException} if there is an error posting the request or the
+     * deadline expires.
+     */
+    public static CompletableFuture<String> postXmlAsync(String url, String xml, Deadline deadline, Credential credential) {
+        return submit(url, xml, () -> deadline, credential);
+    }
+
+    private static CompletableFuture<String> submit(String url, String xml, Supplier<Deadline> deadline, Credential credential) {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        Semaphore permits = hostPermits.computeIfAbsent(host(url), host -> new Semaphore(MAX_ASYNC_PER_HOST, true));
+        HttpPost httpPost = newPost(url, xml);
+
+        // Abort the request on the wire if the caller cancels it
+        future.whenComplete((response, e) -> {
+            if (future.isCancelled())
+                httpPost.abort();
+        });
+
+        asyncExecutor.execute(() -> {
+            try {
+                // Take the camera permit first, so waiting on a busy camera never holds a global permit
+                permits.acquire();
+                try {
+                    asyncPermits.acquire();
+                    try {
+                        // Skip requests cancelled while they were waiting for a permit
+                        if (!future.isDone())
+                            future.complete(execute(httpPost, deadline.get(), credential));
+                    } finally {
+                        asyncPermits.release();
+                    }
+                } finally {
+                    permits.release();
                 }
+            } catch (OnvifException e) {
+                future.completeExceptionally(e);
+            } catch (InterruptedException e) {
+                future.completeExceptionally(new OnvifException("Interrupted while posting to " + url, e));
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                future.completeExceptionally(new OnvifException("Error posting to " + url + ": " + e, e));
+            } finally {
+                // Never leave a caller joining on the future waiting for good, whatever was thrown
+                if (!future.isDone())
+                    future.completeExceptionally(new OnvifException("Request to " + url + " failed"));
             }
+        });
+
+        return future;
+    }
+
+    private static HttpPost newPost(String url, String xml) {
+        // Set up the HTTP POST request
+        HttpPost httpPost = new HttpPost(url);
+        httpPost.setHeader("Content-Type", "application/soap+xml; charset=UTF-8");
+
+        // Set the request body to the SOAP XML
+        StringEntity entity = new StringEntity(xml, StandardCharsets.UTF_8);
+        httpPost.setEntity(entity);
+
+        return httpPost;
+    }
+
+    private static String execute(HttpPost httpPost, Deadline deadline, Credential credential) throws OnvifException {
+        return execute(httpPost, deadline, credential, response -> {
+            HttpEntity responseEntity = response.getEntity();
+
+            // If there is no response, return null
+            if (responseEntity == null)
+                return null;
+            else {
+                // Otherwise return the response as a string, which also returns the connection to the pool
+                return EntityUtils.toString(responseEntity, StandardCharsets.UTF_8);
+            }
+        });
+    }
+
+    private static <T> T execute(HttpPost httpPost, Deadline deadline, Credential credential, ResponseHandler<? extends T> handler)
+            throws OnvifException {
+        if (deadline.isExpired())
+            throw new OnvifException("The " + deadline + " expired before posting to " + httpPost.getURI());
+
+        httpPost.setConfig(RequestConfig.custom()
+                .setConnectTimeout(deadline.cap(CONNECT_TIMEOUT))
+                .setSocketTimeout(deadline.cap(READ_TIMEOUT))
+                .setConnectionRequestTimeout(deadline.cap(CONNECT_TIMEOUT))
+                .build());
+
+        // Socket timeouts only bound each read, so abort requests that trickle on past the total timeout
+        int requestTimeout = deadline.cap(REQUEST_TIMEOUT);
+        ScheduledFuture<?> abort = timer.schedule(httpPost::abort, requestTimeout, TimeUnit.MILLISECONDS);
+
+        // Every request shares the cached schemes of its own credential, and authenticates with that credential
+        HttpClientContext context = HttpClientContext.create();
+        context.setAuthCache(authCache.forCredential(credential));
+        if (credential != null) {
+            CredentialsProvider credentialsProvider = new BasicCredentialsProvider();
+            credentialsProvider.setCredentials(AuthScope.ANY, new UsernamePasswordCredentials(credential.getUsername(), credential.getPassword()));
+            context.setCredentialsProvider(credentialsProvider);
+        }
+
+        try (CloseableHttpResponse response = httpClient.execute(httpPost, context)) {
+            // Worded like the ONVIF fault, so that callers can tell a rejected credential from other errors
+            if (response.getStatusLine().getStatusCode() == HttpStatus.SC_UNAUTHORIZED) {
+                EntityUtils.consume(response.getEntity());
+                throw new OnvifException("NotAuthorized: " + response.getStatusLine() + " from " + httpPost.getURI());
+            }
+
+            return handler.handleResponse(response);
         } catch (IOException e) {
+            // An aborted request has either run out of time or been cancelled by the caller
+            if (httpPost.isAborted())
+                throw new OnvifException(abort.isDone()
+                        ? "No response from " + httpPost.getURI() + " within " + requestTimeout + " ms"
+                        : "Request to " + httpPost.getURI() + " was cancelled", e);
+
             // If there is an error, throw an OnvifException
             throw new OnvifException(e);
+        } finally {
+            abort.cancel(false);
+        }
+    }
+
+    // The host and port of the URL, which identify the camera the request is limited by
+    private static String host(String url) {
+        try {
+            URI uri = new URI(url);
+            return uri.getHost() + ":" + uri.getPort();
+        } catch (URISyntaxException e) {
+            return url;
         }
     }
+
+    /**
+     * Retrieves the number of asynchronous requests currently being posted.
+     *
+     * @return the number of in-flight asynchronous requests
+     */
+    public static int getAsyncInFlight() {
+        return MAX_ASYNC_IN_FLIGHT - asyncPermits.availablePermits();
+    }
+
+    /**
+     * Retrieves the number of pooled connections currently executing a request.
+     *
+     * @return the number of leased connections
+     */
+    public static int getLeasedConnections() {
+        return connectionManager.getTotalStats().getLeased();
+    }
+
+    /**
+     * Retrieves the number of idle pooled connections kept alive for reuse.
+     *
+     * @return the number of available connections
+     */
+    public static int getAvailableConnections() {
+        return connectionManager.getTotalStats().getAvailable();
+    }
+
+    /**
+     * Retrieves the number of requests waiting for a pooled connection.
+     *
+     * @return the number of pending requests
+     */
+    public static int getPendingConnections() {
+        return connectionManager.getTotalStats().getPending();
+    }
+
+    /**
+     * Retrieves a summary of the connection pool for logging.
+     *
+     * @return the leased, available and pending connections and the pool limit
+     */
+    public static String getPoolStats() {
+        PoolStats stats = connectionManager.getTotalStats();
+        return String.format("leased %d, available %d, pending %d of max %d", stats.getLeased(), stats.getAvailable(),
+                stats.getPending(), stats.getMax());
+    }
 }
@@ -0,0 +1,180 @@
+package com.tcs.ion.icamera.cctv.util;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * An inclusive range of IPv4 addresses held as two packed {@code int}s.
+ * <p>
+ * Addresses are compared as unsigned values and enumerated lazily through a
+ * primitive iterator, so a range costs the same amount of memory whether it holds
+ * one address or a whole /8. Addresses are only converted to their dotted form
+ * when they are needed as text.
+ *
+ * @param first the first address of the range, inclusive
+ * @param last  the last address of the range, inclusive
+ */
+public record IpRange(int first, int last) {
+
+    public IpRange {
+        if (Integer.compareUnsigned(first, last) > 0) {
+            int swap = first;
+            first = last;
+            last = swap;
+        }
+    }
+
+    /**
+     * Creates the range between two dotted IPv4 addresses, in either order.
+     *
+     * @param ip1 one end of the range
+     * @param ip2 the other end of the range
+     * @return the range of addresses between the two, inclusive
+     */
+    public static IpRange between(String ip1, String ip2) {
+        return new IpRange(toInt(ip1), toInt(ip2));
+    }
+
+    /**
+     * Creates the range of host addresses of the subnet an address belongs to.
+     * The network and broadcast addresses are excluded, except for /31 and /32
+     * subnets, which have none.
+     *
+     * @param address      an IPv4 address of the subnet
+     * @param prefixLength the network prefix length of the subnet
+     * @return the range of host addresses in the subnet
+     */
+    public static IpRange ofSubnet(Inet4Address address, int prefixLength) {
+        int mask = prefixLength == 0 ? 0 : -1 << (32 - prefixLength);
+        int network = toInt(address) & mask;
+        int broadcast = network | ~mask;
+
+        return prefixLength >= 31 ? new IpRange(network, broadcast) : new IpRange(network + 1, broadcast - 1);
+    }
+
+    /**
+     * Retrieves the number of addresses in the range.
+     *
+     * @return the number of addresses in the range
+     */
+    public long size() {
+        return Integer.toUnsignedLong(last) - Integer.toUnsignedLong(first) + 1;
+    }
+
+    /**
+     * Checks whether the range contains the given packed address.
+     *
+     * @param ip the packed address to check
+     * @return {@code true} if the address is within the range, {@code false} otherwise
+     */
+    public boolean contains(int ip) {
+        return Integer.compareUnsigned(ip, first) >= 0 && Integer.compareUnsigned(ip, last) <= 0;
+    }
+
+    /**
+     * Returns a lazy iterator over the packed addresses of the range in ascending order.
+     *
+     * @return an iterator over the packed addresses of the range
+     */
+    public PrimitiveIterator.OfInt iterator() {
+        return new PrimitiveIterator.OfInt() {
+            private long next = Integer.toUnsignedLong(first);
+            private final long end = Integer.toUnsignedLong(last);
+
+            @Override
+            public boolean hasNext() {
+                return next <= end;
+            }
+
+            @Override
+            public int nextInt() {
+                if (next > end)
+                    throw new NoSuchElementException();
+                return (int) next++;
+            }
+        };
+    }
+
+    /**
+     * Packs a dotted IPv4 address into an {@code int}.
+     *
+     * @param ip the dotted IPv4 address
+     * @return the packed address
+     * @throws IllegalArgumentException if the address is not a valid dotted IPv4 address
+     */
+    public static int toInt(String ip) {
+        int packed = 0;
+        int octet = 0;
+        int octets = 0;
+        int digits = 0;
+
+        for (int i = 0; i <= ip.length(); i++) {
+            char c = i < ip.length() ? ip.charAt(i) : '.';
+            if (c == '.') {
+                if (digits == 0 || octet > 255 || ++octets > 4)
+                    throw new IllegalArgumentException(String.format("Invalid IPv4 address '%s'.", ip));
+                packed = packed << 8 | octet;
+                octet = 0;
+                digits = 0;
+            } else if (c >= '0' && c <= '9' && digits < 3) {
+                octet = octet * 10 + (c - '0');
+                digits++;
+            } else {
+                throw new IllegalArgumentException(String.format("Invalid IPv4 address '%s'.", ip));
+            }
+        }
+
+        if (octets != 4)
+            throw new IllegalArgumentException(String.format("Invalid IPv4 address '%s'.", ip));
+        return packed;
+    }
+
+    /**
+     * Packs an IPv4 address into an {@code int}.
+     *
+     * @param address the IPv4 address
+     * @return the packed address
+     */
+    public static int toInt(Inet4Address address) {
+        byte[] b = address.getAddress();
+        return (b[0] & 0xff) << 24 | (b[1] & 0xff) << 16 | (b[2] & 0xff) << 8 | (b[3] & 0xff);
+    }
+
+    /**
+     * Formats a packed address in dotted form.
+     *
+     * @param ip the packed address
+     * @return the dotted IPv4 address
+     */
+    public static String toString(int ip) {
+        return new StringBuilder(15)
+                .append(ip >>> 24).append('.')
+                .append(ip >>> 16 & 0xff).append('.')
+                .append(ip >>> 8 & 0xff).append('.')
+                .append(ip & 0xff)
+                .toString();
+    }
+
+    /**
+     * Converts a packed address to an {@link InetAddress} without a name lookup.
+     *
+     * @param ip the packed address
+     * @return the IPv4 address
+     */
+    public static InetAddress toInetAddress(int ip) {
+        try {
+            return InetAddress.getByAddress(new byte[]{(byte) (ip >>> 24), (byte) (ip >>> 16), (byte) (ip >>> 8), (byte) ip});
+        } catch (UnknownHostException e) {
+            // Only thrown for addresses of illegal length
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return first == last ? toString(first) : toString(first) + "-" + toString(last);
+    }
+}
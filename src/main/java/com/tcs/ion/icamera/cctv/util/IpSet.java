@@ -0,0 +1,123 @@
+package com.tcs.ion.icamera.cctv.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * A set of IPv4 addresses held as sorted, non-overlapping {@link IpRange}s.
+ * <p>
+ * Adding a range merges it with any range it overlaps or adjoins, so the set never
+ * holds an address twice and its memory depends only on the number of distinct
+ * ranges, not on the number of addresses. Addresses are enumerated lazily.
+ */
+public final class IpSet {
+    private final List<IpRange> ranges = new ArrayList<>();
+
+    public IpSet() {
+    }
+
+    public IpSet(IpRange range) {
+        add(range);
+    }
+
+    /**
+     * Adds a range of addresses to the set.
+     *
+     * @param range the range to add
+     * @return this set
+     */
+    public IpSet add(IpRange range) {
+        long first = Integer.toUnsignedLong(range.first());
+        long last = Integer.toUnsignedLong(range.last());
+
+        // Absorb every range that overlaps or adjoins the new one
+        int i = 0;
+        while (i < ranges.size() && Integer.toUnsignedLong(ranges.get(i).last()) + 1 < first)
+            i++;
+        while (i < ranges.size() && Integer.toUnsignedLong(ranges.get(i).first()) <= last + 1) {
+            IpRange merged = ranges.remove(i);
+            first = Math.min(first, Integer.toUnsignedLong(merged.first()));
+            last = Math.max(last, Integer.toUnsignedLong(merged.last()));
+        }
+
+        ranges.add(i, new IpRange((int) first, (int) last));
+        return this;
+    }
+
+    /**
+     * Adds all the ranges of another set to this set.
+     *
+     * @param other the set to add
+     * @return this set
+     */
+    public IpSet addAll(IpSet other) {
+        other.ranges.forEach(this::add);
+        return this;
+    }
+
+    /**
+     * Retrieves the ranges of the set in ascending order.
+     *
+     * @return an unmodifiable list of the ranges of the set
+     */
+    public List<IpRange> ranges() {
+        return Collections.unmodifiableList(ranges);
+    }
+
+    /**
+     * Retrieves the number of addresses in the set.
+     *
+     * @return the number of addresses in the set
+     */
+    public long size() {
+        return ranges.stream().mapToLong(IpRange::size).sum();
+    }
+
+    public boolean isEmpty() {
+        return ranges.isEmpty();
+    }
+
+    /**
+     * Checks whether the set contains the given packed address.
+     *
+     * @param ip the packed address to check
+     * @return {@code true} if the address is in the set, {@code false} otherwise
+     */
+    public boolean contains(int ip) {
+        return ranges.stream().anyMatch(range -> range.contains(ip));
+    }
+
+    /**
+     * Returns a lazy iterator over the packed addresses of the set in ascending order.
+     *
+     * @return an iterator over the packed addresses of the set
+     */
+    public PrimitiveIterator.OfInt iterator() {
+        return new PrimitiveIterator.OfInt() {
+            private int range = 0;
+            private PrimitiveIterator.OfInt current = ranges.isEmpty() ? null : ranges.getFirst().iterator();
+
+            @Override
+            public boolean hasNext() {
+                while (current != null && !current.hasNext())
+                    current = ++range < ranges.size() ? ranges.get(range).iterator() : null;
+                return current != null;
+            }
+
+            @Override
+            public int nextInt() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return current.nextInt();
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return ranges.toString();
+    }
+}
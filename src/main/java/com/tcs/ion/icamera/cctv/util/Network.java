@@ -1,17 +1,26 @@
 package com.tcs.ion.icamera.cctv.util;
 
-import org.apache.commons.net.util.SubnetUtils;
 import org.apache.commons.validator.routines.InetAddressValidator;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class Network {
     private static final Logger logger = LogManager.getLogger(Network.class);
     private static final InetAddressValidator validator = InetAddressValidator.getInstance();
+    private static final Pattern ARP_IP = Pattern.compile("\\b\\d{1,3}(\\.\\d{1,3}){3}\\b");
+    private static final Pattern ARP_MAC = Pattern.compile("\\b[0-9a-fA-F]{1,2}([:-][0-9a-fA-F]{1,2}){5}\\b");
+    private static final int ARP_TIMEOUT_SECONDS = 5;
 
     private Network() {
     }
@@ -64,8 +73,8 @@ public class Network {
                 .orElseThrow(() -> new RuntimeException("No IPv4 address found on interface " + networkInterface));
     }
 
-    public static Set<String> getInetAddressesInSubnet() {
-        Set<String> allAddresses = new HashSet<>();
+    public static IpSet getInetAddressesInSubnet() {
+        IpSet allAddresses = new IpSet();
 
         for (NetworkInterface networkInterface : getNetworkInterfaces())
             allAddresses.addAll(getInetAddressesInSubnet(networkInterface));
@@ -73,20 +82,18 @@ public class Network {
         return allAddresses;
     }
 
-    public static Set<String> getInetAddressesInSubnet(NetworkInterface networkInterface) {
-        Set<String> addresses = new HashSet<>();
+    public static IpSet getInetAddressesInSubnet(NetworkInterface networkInterface) {
+        IpSet addresses = new IpSet();
         for (InterfaceAddress interfaceAddress : networkInterface.getInterfaceAddresses()) {
-            if (interfaceAddress.getAddress() instanceof Inet4Address) {
-                String cidrNotation = interfaceAddress.getAddress().getHostAddress() + "/"
-                                      + interfaceAddress.getNetworkPrefixLength();
-                addresses = Set.of(new SubnetUtils(cidrNotation).getInfo().getAllAddresses());
+            if (interfaceAddress.getAddress() instanceof Inet4Address inet4Address) {
+                addresses.add(IpRange.ofSubnet(inet4Address, interfaceAddress.getNetworkPrefixLength()));
             }
         }
         return addresses;
     }
 
-    public static Set<String> inetAddressesBetween(String inetAddress1, String inetAddress2) {
-        Set<String> ipAddresses = new HashSet<>();
+    public static IpSet inetAddressesBetween(String inetAddress1, String inetAddress2) {
+        IpSet ipAddresses = new IpSet();
         try {
             if (!validator.isValidInet4Address(inetAddress1)) {
                 throw new Exception(String.format("Invalid IPv4 address '%s'.", inetAddress1));
@@ -95,30 +102,76 @@ public class Network {
                 throw new Exception(String.format("Invalid IPv4 address '%s'.", inetAddress2));
             }
 
-            long ip1 = ip2long(inetAddress1);
-            long ip2 = ip2long(inetAddress2);
-            if (ip1 > ip2) {
-                long ip3 = ip1;
-                ip1 = ip2;
-                ip2 = ip3;
-            }
-
-            for (long ip = ip1; ip <= ip2; ip++)
-                ipAddresses.add(long2ip(ip));
-
+            ipAddresses.add(IpRange.between(inetAddress1, inetAddress2));
         } catch (Exception e) {
             logger.error("Error getting IP addresses between:", e);
         }
         return ipAddresses;
     }
 
-    private static long ip2long(String ip) {
-        long[] digits = Arrays.stream(ip.split("\\.")).mapToLong(Long::parseLong).toArray();
-        return digits[0] << 24 | digits[1] << 16 | digits[2] << 8 | digits[3];
+    /**
+     * Reads the ARP table of the host, which maps the IPv4 addresses the host has recently
+     * talked to onto the MAC addresses of their devices. The table is read from
+     * {@code /proc/net/arp} where it exists and from the output of {@code arp -a} otherwise.
+     *
+     * @return the MAC address of each IPv4 address in the ARP table, in the form {@code aa:bb:cc:dd:ee:ff}
+     */
+    public static Map<String, String> getArpTable() {
+        Map<String, String> arpTable = new HashMap<>();
+        try {
+            List<String> lines;
+            Path procArp = Path.of("/proc/net/arp");
+            if (Files.isReadable(procArp)) {
+                lines = Files.readAllLines(procArp);
+            } else {
+                Process arp = new ProcessBuilder("arp", "-a").redirectErrorStream(true).start();
+                // Read the output on its own thread, so that the timeout bounds an arp that never exits
+                List<String> output = Collections.synchronizedList(new ArrayList<>());
+                Thread reader = Thread.ofVirtual().name("arp-reader").start(() -> {
+                    try (BufferedReader in = arp.inputReader()) {
+                        in.lines().forEach(output::add);
+                    } catch (IOException | UncheckedIOException e) {
+                        logger.debug("Error reading arp output: {}", e.getMessage());
+                    }
+                });
+                if (!arp.waitFor(ARP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    logger.warn("arp did not exit in {} seconds, reading the entries it gave.", ARP_TIMEOUT_SECONDS);
+                    arp.destroyForcibly();
+                }
+                // The output closes once arp has exited or been killed
+                reader.join(TimeUnit.SECONDS.toMillis(ARP_TIMEOUT_SECONDS));
+                synchronized (output) {
+                    lines = List.copyOf(output);
+                }
+            }
+
+            for (String line : lines) {
+                Matcher ip = ARP_IP.matcher(line);
+                Matcher mac = ARP_MAC.matcher(line);
+                if (ip.find() && mac.find()) {
+                    String address = normaliseMac(mac.group());
+                    // Incomplete entries have an all-zero address
+                    if (!address.equals("00:00:00:00:00:00"))
+                        arpTable.put(ip.group(), address);
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Error reading ARP table: {}", e.getMessage());
+        } catch (InterruptedException e) {
+            logger.error("Interrupted while reading ARP table.");
+            Thread.currentThread().interrupt();
+        }
+
+        logger.info("ARP table has {} entries.", arpTable.size());
+        return arpTable;
     }
 
-    private static String long2ip(long ip) {
-        return String.format("%d.%d.%d.%d", (ip >> 24 & 0xff), (ip >> 16 & 0xff), (ip >> 8 & 0xff), (ip & 0xff));
+    // Pad every octet to two lower-case digits, as macOS drops leading zeros and Windows uses dashes
+    private static String normaliseMac(String mac) {
+        StringJoiner joiner = new StringJoiner(":");
+        for (String octet : mac.split("[:-]"))
+            joiner.add(octet.length() == 1 ? "0" + octet.toLowerCase() : octet.toLowerCase());
+        return joiner.toString();
     }
 
     public static int getFreeLocalPort() throws IOException {
@@ -8,10 +8,9 @@ import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketAddress;
 import java.util.*;
-import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 public class NetworkScan {
     private static final Logger logger = LogManager.getLogger(NetworkScan.class);
@@ -20,22 +19,55 @@ public class NetworkScan {
     private static final int DEFAULT_TIMEOUT = 1000;
 
     // Fields
-    private final List<IpPort> ipPorts = new ArrayList<>();
+    private final IpSet ips;
+    private final int[] ports;
     private final Counter counter;
     private final int noOfPorts;
+    private final Engine engine;
 
     // Constructor
-    public NetworkScan(Set<String> ips, Set<Integer> ports) {
-        // Initialize IP and Port combinations
-        ips.forEach(ip -> ports.forEach(port -> ipPorts.add(new IpPort(ip, port))));
-        this.counter = new Counter(ipPorts.size());
+    public NetworkScan(IpSet ips, Set<Integer> ports) {
+        this(ips, ports, Engine.DEFAULT);
+    }
+
+    public NetworkScan(IpSet ips, Set<Integer> ports, Engine engine) {
+        // IP and Port combinations are generated lazily while scanning
+        this.ips = ips;
+        this.ports = ports.stream().mapToInt(Integer::intValue).sorted().toArray();
+        this.counter = new Counter((int) Math.min(Integer.MAX_VALUE, ips.size() * ports.size()));
         this.noOfPorts = ports.size();
+        this.engine = engine;
+    }
+
+    // Generate the IP and Port combinations of the scan, one IP at a time
+    private Iterator<IpPort> ipPorts() {
+        return new Iterator<>() {
+            private final PrimitiveIterator.OfInt ipIterator = ips.iterator();
+            private int ip;
+            private int portIndex = ports.length;
+
+            @Override
+            public boolean hasNext() {
+                return ports.length > 0 && (portIndex < ports.length || ipIterator.hasNext());
+            }
+
+            @Override
+            public IpPort next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                if (portIndex == ports.length) {
+                    ip = ipIterator.nextInt();
+                    portIndex = 0;
+                }
+                return new IpPort(ip, ports[portIndex++]);
+            }
+        };
     }
 
     // Check if an IP and Port combination is reachable
-    private boolean isIpPortReachable(String ip, int port, int timeout) {
+    private boolean isIpPortReachable(IpPort ipPort, int timeout) {
         try (Socket socket = new Socket()) {
-            SocketAddress socketAddress = new InetSocketAddress(ip, port);
+            SocketAddress socketAddress = ipPort.socketAddress();
             socket.connect(socketAddress, timeout);
             return true;
         } catch (IOException e) {
@@ -45,33 +77,40 @@ public class NetworkScan {
         }
     }
 
-    // Refactored method to use ExecutorService for concurrent processing
-    private List<IpPort> getReachableIpPorts(List<IpPort> ipPorts, int timeout) {
+    // Connect to every IP and Port combination on the shared scan executor
+    private List<IpPort> getReachableIpPorts(Iterator<IpPort> ipPorts, int timeout, Consumer<IpPort> onReachable) {
         ConcurrentLinkedQueue<IpPort> reachableIpPorts = new ConcurrentLinkedQueue<>();
 
-        List<Callable<Void>> tasks = new ArrayList<>();
-        for (IpPort ipPort : ipPorts) {
-            tasks.add(() -> {
-                if (isIpPortReachable(ipPort.ip(), ipPort.port(), timeout)) {
-                    reachableIpPorts.add(ipPort);
-                }
-                return null; // Callable<Void> return type
-            });
-        }
+        // Tasks are created as permits become available, never all up front
+        Iterator<Runnable> tasks = new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return ipPorts.hasNext();
+            }
+
+            @Override
+            public Runnable next() {
+                IpPort ipPort = ipPorts.next();
+                return () -> {
+                    if (isIpPortReachable(ipPort, timeout)) {
+                        reachableIpPorts.add(ipPort);
+                        onReachable.accept(ipPort);
+                    }
+                };
+            }
+        };
 
-        int threadCount = Math.min(ipPorts.size(), Runtime.getRuntime().availableProcessors()) * 4;
-        logger.info("USING {} CONCURRENT THREADS.", threadCount);
+        logger.info("USING UP TO {} CONCURRENT CONNECTIONS.", ScanExecutor.getMaxInFlight());
 
-        try (ExecutorService executorService = Executors.newFixedThreadPool(threadCount)) {
-            // Submit tasks to executor
-            logger.info("Scanning {} IP:Port combinations.", ipPorts.size());
-            executorService.invokeAll(tasks);
+        try {
+            // Submit tasks to the shared scan executor
+            ScanExecutor.runAll(tasks);
         } catch (InterruptedException e) {
             logger.error("Scan interrupted.");
             Thread.currentThread().interrupt();
         }
 
-        logger.info("Found {} of {}.", reachableIpPorts.size(), ipPorts.size());
+        logger.info("Found {} of {}.", reachableIpPorts.size(), counter.total());
         return new ArrayList<>(reachableIpPorts);
     }
 
@@ -80,14 +119,40 @@ public class NetworkScan {
         return scan(DEFAULT_TIMEOUT);
     }
 
+    public Map<String, List<Integer>> scan(BiConsumer<String, Integer> listener) {
+        return scan(DEFAULT_TIMEOUT, listener);
+    }
+
     public Map<String, List<Integer>> scan(int timeout) {
+        return scan(timeout, (ip, port) -> {
+        });
+    }
+
+    /**
+     * Scans every IP and Port combination and publishes each reachable one to the
+     * listener the moment it connects, so that downstream stages can start working
+     * while the sweep is still running.
+     * <p>
+     * The listener may be called concurrently from several threads and should hand
+     * the result over quickly, for example to a {@link ScanStage}.
+     *
+     * @param timeout  the connect timeout in milliseconds for each combination
+     * @param listener the listener called with the IP and port of each reachable combination
+     * @return a map of each reachable IP to its reachable ports
+     */
+    public Map<String, List<Integer>> scan(int timeout, BiConsumer<String, Integer> listener) {
         startProgressLogger();
-        List<IpPort> reachableIpPorts = getReachableIpPorts(ipPorts, timeout);
+        logger.info("Scanning {} IP:Port combinations with {} engine.", counter.total(), engine);
+        Consumer<IpPort> onReachable = ipPort -> listener.accept(ipPort.host(), ipPort.port());
+        List<IpPort> reachableIpPorts = switch (engine) {
+            case BLOCKING -> getReachableIpPorts(ipPorts(), timeout, onReachable);
+            case NIO -> new NioConnectEngine(NioConnectEngine.DEFAULT_MAX_IN_FLIGHT, counter).scan(ipPorts(), timeout, onReachable);
+        };
         Map<String, List<Integer>> result = new HashMap<>();
 
         // Group reachable ports by IP
         for (IpPort ipPort : reachableIpPorts) {
-            result.computeIfAbsent(ipPort.ip(), k -> new ArrayList<>()).add(ipPort.port());
+            result.computeIfAbsent(ipPort.host(), k -> new ArrayList<>()).add(ipPort.port());
         }
 
         return result;
@@ -99,7 +164,8 @@ public class NetworkScan {
             while (counter.count() < counter.total()) {
                 try {
                     Thread.sleep(15000);
-                    logger.info("Scanned {} of {}.", counter.count(), counter.total());
+                    logger.info("Scanned {} of {}. In-flight {}, queued {}, completed {}.", counter.count(), counter.total(),
+                            ScanExecutor.getInFlight(), ScanExecutor.getQueued(), ScanExecutor.getCompleted());
                 } catch (InterruptedException e) {
                     logger.error("Scan logger interrupted.");
                     Thread.currentThread().interrupt();
@@ -126,7 +192,39 @@ public class NetworkScan {
         return counter.count() / noOfPorts;
     }
 
-    // Immutable record for IP and Port combinations
-    private record IpPort(String ip, Integer port) {
+    /**
+     * The connect engine used to sweep the IP:Port combinations.
+     * <p>
+     * {@link #BLOCKING} connects each combination with a blocking socket on the shared
+     * {@link ScanExecutor}, while {@link #NIO} keeps up to {@value NioConnectEngine#DEFAULT_MAX_IN_FLIGHT}
+     * non-blocking connects in flight from a single selector thread. The default
+     * engine is {@link #NIO} and can be overridden with the {@code cctv.scan.engine}
+     * system property.
+     */
+    public enum Engine {
+        BLOCKING, NIO;
+
+        public static final Engine DEFAULT = parse(System.getProperty("cctv.scan.engine", NIO.name()));
+
+        // Read the engine leniently, as a mistyped property must not break every scan
+        private static Engine parse(String name) {
+            try {
+                return valueOf(name.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                LogManager.getLogger(NetworkScan.class).warn("Unknown scan engine {}, using {}.", name, NIO);
+                return NIO;
+            }
+        }
+    }
+
+    // Immutable record for IP and Port combinations, with the IP packed into an int
+    record IpPort(int ip, int port) {
+        String host() {
+            return IpRange.toString(ip);
+        }
+
+        InetSocketAddress socketAddress() {
+            return new InetSocketAddress(IpRange.toInetAddress(ip), port);
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,266 @@
+package com.tcs.ion.icamera.cctv.util;
+
+import com.tcs.ion.icamera.cctv.util.NetworkScan.IpPort;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+
+/**
+ * A TCP connect scanner that keeps many non-blocking connects in flight from the
+ * calling thread. Each IP:port combination is opened as a non-blocking
+ * {@link SocketChannel} and registered on a single {@link Selector}; completed
+ * connects are collected as reachable, and connects that have not completed within
+ * the timeout are expired through a timer wheel and closed.
+ * <p>
+ * The number of simultaneously open channels is bounded per scan, and every open
+ * channel also holds a permit of the {@link ScanExecutor} in-flight budget, so that
+ * concurrent scans over large ranges do not exhaust the file descriptors of the process.
+ * <p>
+ * The selector thread never blocks on the consumer of the results. Reachable
+ * combinations are queued to a delivery thread, which may wait on a full downstream
+ * stage, and no new connects are started while that queue is backed up.
+ */
+class NioConnectEngine {
+    private static final Logger logger = LogManager.getLogger(NioConnectEngine.class);
+
+    // Default number of connects kept in flight at once
+    static final int DEFAULT_MAX_IN_FLIGHT = 1024;
+    // Resolution of the timer wheel in milliseconds
+    private static final int TICK_MILLIS = 10;
+    // Marks the end of the reachable combinations for the delivery thread
+    private static final IpPort END = new IpPort(0, -1);
+
+    private final int maxInFlight;
+    private final Counter counter;
+
+    NioConnectEngine(int maxInFlight, Counter counter) {
+        this.maxInFlight = maxInFlight;
+        this.counter = counter;
+    }
+
+    /**
+     * Connects to every IP:port combination and returns the ones that accepted the
+     * connection within the timeout.
+     *
+     * @param ipPorts     the IP:port combinations to connect to
+     * @param timeout     the connect timeout in milliseconds for each combination
+     * @param onReachable called on a delivery thread with each combination, in the order they connect
+     * @return the reachable IP:port combinations
+     */
+    List<IpPort> scan(Iterator<IpPort> ipPorts, int timeout, Consumer<IpPort> onReachable) {
+        List<IpPort> reachableIpPorts = new ArrayList<>();
+        BlockingQueue<IpPort> undelivered = new LinkedBlockingQueue<>();
+        Thread delivery = Thread.ofVirtual().name("nio-connect-delivery").start(() -> deliver(undelivered, onReachable));
+        int inFlight = 0;
+
+        try (Selector selector = Selector.open()) {
+            DeadlineWheel wheel = new DeadlineWheel(timeout);
+
+            try {
+                while (ipPorts.hasNext() || inFlight > 0) {
+                    // Keep the pipeline full up to the in-flight limit and the global budget,
+                    // unless the consumer has fallen behind on the combinations already found
+                    while (inFlight < maxInFlight && undelivered.size() < maxInFlight && ipPorts.hasNext() && ScanExecutor.tryAcquire()) {
+                        IpPort ipPort = ipPorts.next();
+                        switch (connect(selector, wheel, ipPort)) {
+                            case PENDING -> inFlight++;
+                            case CONNECTED -> {
+                                reachableIpPorts.add(ipPort);
+                                complete();
+                                undelivered.add(ipPort);
+                            }
+                            case FAILED -> complete();
+                        }
+                    }
+
+                    selector.select(TICK_MILLIS);
+
+                    // Collect the connects that completed since the last select
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+
+                        boolean connected = finishConnect(key);
+                        inFlight--;
+                        complete();
+
+                        if (connected) {
+                            reachableIpPorts.add((IpPort) key.attachment());
+                            undelivered.add((IpPort) key.attachment());
+                        }
+                    }
+
+                    // Close the connects whose deadline has passed
+                    int expired = wheel.expire();
+                    inFlight -= expired;
+                    for (int i = 0; i < expired; i++)
+                        complete();
+                }
+            } finally {
+                // Close whatever is still registered if the scan is aborted
+                for (SelectionKey key : selector.keys())
+                    close((SocketChannel) key.channel());
+            }
+        } catch (IOException e) {
+            logger.error("Error in non-blocking connect scan:", e);
+        } finally {
+            // Return the permits of connects abandoned by an aborted scan
+            for (int i = 0; i < inFlight; i++)
+                complete();
+            awaitDelivery(undelivered, delivery);
+        }
+
+        return reachableIpPorts;
+    }
+
+    // Hand each reachable combination to the consumer, which may block, off the selector thread
+    private static void deliver(BlockingQueue<IpPort> undelivered, Consumer<IpPort> onReachable) {
+        try {
+            for (IpPort ipPort = undelivered.take(); ipPort != END; ipPort = undelivered.take()) {
+                try {
+                    onReachable.accept(ipPort);
+                } catch (RuntimeException e) {
+                    logger.error("Error handing over {}:{}:", ipPort.host(), ipPort.port(), e);
+                }
+            }
+        } catch (InterruptedException e) {
+            logger.error("Delivery of reachable combinations interrupted.");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Wait until every reachable combination has been handed to the consumer
+    private static void awaitDelivery(BlockingQueue<IpPort> undelivered, Thread delivery) {
+        undelivered.add(END);
+        try {
+            delivery.join();
+        } catch (InterruptedException e) {
+            logger.error("Interrupted while waiting for the delivery of reachable combinations.");
+            delivery.interrupt();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Account for a finished connect and return its permit to the global budget
+    private void complete() {
+        counter.increment();
+        ScanExecutor.release();
+    }
+
+    // Start a non-blocking connect and register it for completion and expiry
+    private static ConnectState connect(Selector selector, DeadlineWheel wheel, IpPort ipPort) {
+        SocketChannel channel = null;
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+
+            if (channel.connect(ipPort.socketAddress())) {
+                channel.close();
+                return ConnectState.CONNECTED;
+            }
+
+            wheel.schedule(channel.register(selector, SelectionKey.OP_CONNECT, ipPort));
+            return ConnectState.PENDING;
+        } catch (IOException | RuntimeException e) {
+            logger.debug("Unable to connect to {}:{} as {}", ipPort.host(), ipPort.port(), e.getMessage());
+            close(channel);
+            return ConnectState.FAILED;
+        }
+    }
+
+    // Finish a connect flagged by the selector, always closing the channel
+    private static boolean finishConnect(SelectionKey key) {
+        SocketChannel channel = (SocketChannel) key.channel();
+        try {
+            return channel.finishConnect();
+        } catch (IOException e) {
+            return false;
+        } finally {
+            key.cancel();
+            close(channel);
+        }
+    }
+
+    private static void close(SocketChannel channel) {
+        if (channel == null)
+            return;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.debug("Error closing channel: {}", e.getMessage());
+        }
+    }
+
+    private enum ConnectState {
+        PENDING, CONNECTED, FAILED
+    }
+
+    /**
+     * A hashed timer wheel of pending connects. Every connect shares the same
+     * timeout, so each one lands in the slot that the wheel will reach once the
+     * timeout has elapsed; advancing the wheel closes whatever is still pending
+     * in the slots it passes.
+     */
+    private static class DeadlineWheel {
+        private final List<ArrayDeque<SelectionKey>> slots;
+        private final int timeoutTicks;
+        private final long startNanos;
+        private long currentTick;
+
+        DeadlineWheel(int timeout) {
+            this.timeoutTicks = Math.max(1, (timeout + TICK_MILLIS - 1) / TICK_MILLIS);
+            // One spare slot so a connect scheduled behind the wheel is never swept early
+            this.slots = new ArrayList<>(timeoutTicks + 2);
+            for (int i = 0; i < timeoutTicks + 2; i++)
+                slots.add(new ArrayDeque<>());
+            this.startNanos = System.nanoTime();
+            this.currentTick = 0;
+        }
+
+        void schedule(SelectionKey key) {
+            slots.get((int) ((currentTick + timeoutTicks + 1) % slots.size())).add(key);
+        }
+
+        /**
+         * Advances the wheel to the current time and closes every connect whose
+         * deadline has passed.
+         *
+         * @return the number of connects closed
+         */
+        int expire() {
+            int expired = 0;
+            long nowTick = elapsedTicks();
+
+            for (; currentTick < nowTick; currentTick++) {
+                ArrayDeque<SelectionKey> slot = slots.get((int) (currentTick % slots.size()));
+                SelectionKey key;
+                while ((key = slot.poll()) != null) {
+                    // Keys cancelled on completion are already accounted for
+                    if (key.isValid()) {
+                        key.cancel();
+                        close((SocketChannel) key.channel());
+                        expired++;
+                    }
+                }
+            }
+
+            return expired;
+        }
+
+        private long elapsedTicks() {
+            return (System.nanoTime() - startNanos) / 1_000_000 / TICK_MILLIS;
+        }
+    }
+}
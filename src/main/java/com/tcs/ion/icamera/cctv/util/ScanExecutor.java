@@ -0,0 +1,217 @@
+package com.tcs.ion.icamera.cctv.util;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The ScanExecutor class is the shared scheduler for every network stage of the tool.
+ * Tasks run on virtual threads, and every task, as well as every socket opened by the
+ * non-blocking connect engine, holds one permit of a process-wide in-flight budget
+ * while it is running. The budget bounds the number of open sockets regardless of how
+ * many scans run at the same time, so the tool can use many concurrent probes on a
+ * large machine without running out of file descriptors.
+ * <p>
+ * The budget defaults to {@value #DEFAULT_MAX_IN_FLIGHT} and can be configured with the
+ * {@code cctv.scan.maxInFlight} system property. Live gauges for in-flight, queued and
+ * completed work are exposed for progress reporting.
+ * <p>
+ * This class contains static methods and cannot be instantiated.
+ */
+public class ScanExecutor {
+    public static final int DEFAULT_MAX_IN_FLIGHT = 1024;
+
+    private static final Logger logger = LogManager.getLogger(ScanExecutor.class);
+    private static final int MAX_IN_FLIGHT = Integer.getInteger("cctv.scan.maxInFlight", DEFAULT_MAX_IN_FLIGHT);
+    private static final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private static final Semaphore budget = new Semaphore(MAX_IN_FLIGHT, true);
+    private static final AtomicInteger inFlight = new AtomicInteger();
+    private static final AtomicInteger queued = new AtomicInteger();
+    private static final AtomicLong completed = new AtomicLong();
+
+    static {
+        logger.info("Network stages limited to {} in-flight connections.", MAX_IN_FLIGHT);
+    }
+
+    private ScanExecutor() {
+    }
+
+    /**
+     * Submits a task to run on a virtual thread once a permit of the in-flight budget
+     * is available. The task is counted as queued until it holds a permit.
+     *
+     * @param task the task to run
+     * @param <T>  the result type of the task
+     * @return a future representing the pending result of the task
+     */
+    public static <T> Future<T> submit(Callable<T> task) {
+        queued.incrementAndGet();
+        return executor.submit(() -> {
+            try {
+                budget.acquire();
+            } finally {
+                queued.decrementAndGet();
+            }
+            return runAndRelease(task);
+        });
+    }
+
+    /**
+     * Runs all the given tasks on virtual threads and waits for them to complete.
+     * <p>
+     * A permit is acquired on the calling thread before each task is started, so a
+     * large batch applies back-pressure to the caller rather than parking one virtual
+     * thread per task. Tasks that are waiting for a permit are counted as queued.
+     *
+     * @param tasks the tasks to run
+     * @param <T>   the result type of the tasks
+     * @return the futures of the tasks, in the order of the given collection
+     * @throws InterruptedException if interrupted while waiting for a permit or for the tasks
+     */
+    public static <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks) throws InterruptedException {
+        List<Future<T>> futures = new ArrayList<>(tasks.size());
+        queued.addAndGet(tasks.size());
+        int started = 0;
+
+        try {
+            for (Callable<T> task : tasks) {
+                budget.acquire();
+                queued.decrementAndGet();
+                started++;
+                futures.add(executor.submit(() -> runAndRelease(task)));
+            }
+        } finally {
+            // Tasks not started because of an interrupt are no longer queued
+            queued.addAndGet(started - tasks.size());
+        }
+
+        for (Future<T> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                logger.debug("Scan task failed: {}", e.getMessage());
+            } catch (CancellationException e) {
+                logger.debug("Scan task cancelled.");
+            }
+        }
+        return futures;
+    }
+
+    /**
+     * Runs every task produced by the given iterator on virtual threads and waits for
+     * them to complete.
+     * <p>
+     * The next task is only taken from the iterator once a permit is available, so a
+     * lazily generated stream of work is never materialised and memory stays flat
+     * however many tasks it produces.
+     *
+     * @param tasks the iterator producing the tasks to run
+     * @throws InterruptedException if interrupted while waiting for a permit or for the tasks
+     */
+    public static void runAll(Iterator<? extends Runnable> tasks) throws InterruptedException {
+        Semaphore done = new Semaphore(0);
+        int started = 0;
+
+        try {
+            while (tasks.hasNext()) {
+                queued.incrementAndGet();
+                try {
+                    budget.acquire();
+                } finally {
+                    queued.decrementAndGet();
+                }
+
+                Runnable task = tasks.next();
+                started++;
+                executor.execute(() -> {
+                    try {
+                        runAndRelease(Executors.callable(task));
+                    } catch (Exception e) {
+                        logger.debug("Scan task failed: {}", e.getMessage());
+                    } finally {
+                        done.release();
+                    }
+                });
+            }
+        } finally {
+            // Wait for the started tasks even when interrupted, so none outlive the scan
+            done.acquireUninterruptibly(started);
+        }
+    }
+
+    /**
+     * Acquires a permit of the in-flight budget without waiting, for callers that
+     * manage their own sockets such as the non-blocking connect engine. Each
+     * successful call must be matched by a call to {@link #release()}.
+     *
+     * @return {@code true} if a permit was acquired, {@code false} if the budget is exhausted
+     */
+    public static boolean tryAcquire() {
+        if (!budget.tryAcquire())
+            return false;
+        inFlight.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Returns a permit acquired with {@link #tryAcquire()} to the in-flight budget and
+     * counts the work as completed.
+     */
+    public static void release() {
+        inFlight.decrementAndGet();
+        completed.incrementAndGet();
+        budget.release();
+    }
+
+    private static <T> T runAndRelease(Callable<T> task) throws Exception {
+        inFlight.incrementAndGet();
+        try {
+            return task.call();
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Retrieves the number of tasks and sockets currently holding a permit.
+     *
+     * @return the number of in-flight tasks and sockets
+     */
+    public static int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Retrieves the number of tasks waiting for a permit.
+     *
+     * @return the number of queued tasks
+     */
+    public static int getQueued() {
+        return queued.get();
+    }
+
+    /**
+     * Retrieves the number of tasks and sockets completed since the application started.
+     *
+     * @return the number of completed tasks and sockets
+     */
+    public static long getCompleted() {
+        return completed.get();
+    }
+
+    /**
+     * Retrieves the size of the in-flight budget.
+     *
+     * @return the maximum number of in-flight tasks and sockets
+     */
+    public static int getMaxInFlight() {
+        return MAX_IN_FLIGHT;
+    }
+}
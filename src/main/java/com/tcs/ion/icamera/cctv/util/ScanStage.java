@@ -0,0 +1,127 @@
+package com.tcs.ion.icamera.cctv.util;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * A downstream stage of a network scan that processes items while the scan that
+ * produces them is still running.
+ * <p>
+ * Items are handed over through a bounded queue and processed by a fixed number of
+ * virtual-thread workers. When the queue is full, {@link #submit(Object)} blocks the
+ * producer, so a fast sweep cannot run arbitrarily far ahead of a slow stage.
+ * Closing the stage waits until every submitted item has been processed.
+ *
+ * @param <T> the type of the items processed by the stage
+ */
+public class ScanStage<T> implements AutoCloseable {
+    private static final Logger logger = LogManager.getLogger(ScanStage.class);
+    private static final long POLL_MILLIS = 100;
+
+    private final String name;
+    private final BlockingQueue<T> queue;
+    private final Consumer<T> handler;
+    private final List<Thread> workers = new ArrayList<>();
+    private final AtomicInteger submitted = new AtomicInteger();
+    private final AtomicInteger completed = new AtomicInteger();
+    private volatile boolean closed;
+
+    /**
+     * Creates and starts a stage.
+     *
+     * @param name     the name of the stage, used for its worker threads and logs
+     * @param capacity the capacity of the queue between the producer and the workers
+     * @param workers  the number of workers processing items concurrently
+     * @param handler  the handler applied to each item
+     */
+    public ScanStage(String name, int capacity, int workers, Consumer<T> handler) {
+        this.name = name;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.handler = handler;
+
+        for (int i = 0; i < workers; i++)
+            this.workers.add(Thread.ofVirtual().name(name + "-", i).start(this::work));
+    }
+
+    /**
+     * Hands an item over to the stage, waiting while the queue is full.
+     *
+     * @param item the item to process
+     */
+    public void submit(T item) {
+        if (closed)
+            throw new IllegalStateException("Stage " + name + " is closed.");
+        try {
+            submitted.incrementAndGet();
+            queue.put(item);
+        } catch (InterruptedException e) {
+            submitted.decrementAndGet();
+            logger.error("Interrupted while handing {} over to stage {}.", item, name);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void work() {
+        try {
+            while (!closed || !queue.isEmpty()) {
+                T item = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (item == null)
+                    continue;
+                try {
+                    handler.accept(item);
+                } catch (RuntimeException e) {
+                    logger.error("Error processing {} in stage {}:", item, name, e);
+                } finally {
+                    completed.incrementAndGet();
+                }
+            }
+        } catch (InterruptedException e) {
+            logger.error("Stage {} worker interrupted.", name);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Retrieves the number of items handed over to the stage so far.
+     *
+     * @return the number of submitted items
+     */
+    public int getSubmitted() {
+        return submitted.get();
+    }
+
+    /**
+     * Retrieves the number of items the stage has finished processing.
+     *
+     * @return the number of processed items
+     */
+    public int getCompleted() {
+        return completed.get();
+    }
+
+    /**
+     * Stops accepting items and waits until every submitted item has been processed.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                logger.error("Interrupted while waiting for stage {} to finish.", name);
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        logger.info("Stage {} processed {} items.", name, completed.get());
+    }
+}
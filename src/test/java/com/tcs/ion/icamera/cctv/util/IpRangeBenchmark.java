@@ -0,0 +1,127 @@
+package com.tcs.ion.icamera.cctv.util;
+
+import org.apache.commons.net.util.SubnetUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the cost of enumerating the work items of a scan of a /24, /20 and /16 with
+ * the {@link IpSet} model against the {@code Set<String>} model it replaced.
+ * <p>
+ * The replaced model materialised the addresses of a subnet with
+ * {@link SubnetUtils.SubnetInfo#getAllAddresses()}, or formatted every address of a
+ * range with {@code String.format}, into a {@code Set<String>}, and then built an IP:port
+ * record for each address and port before connecting to any. All of it was held until
+ * the scan finished, so the bytes it allocates are also the heap it kept. The IpSet model
+ * enumerates packed addresses lazily and keeps only its ranges, whatever their size.
+ * The {@code ipSetFormatted} benchmark also formats every address, which bounds the
+ * cost of the few addresses a scan does turn into text.
+ * <p>
+ * Run it with the GC profiler, whose {@code gc.alloc.rate.norm} gives the bytes
+ * allocated by each enumeration:
+ * <pre>
+ * mvn test-compile exec:exec -Dexec.executable=java -Dexec.classpathScope=test \
+ *     -Dexec.args="-cp %classpath org.openjdk.jmh.Main IpRangeBenchmark -prof gc"
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IpRangeBenchmark {
+    // The ports the ONVIF and RTSP scans try on each address
+    private static final int[] PORTS = {80, 554, 8000, 8080, 8554, 8899, 10554};
+
+    @Param({"24", "20", "16"})
+    public int prefixLength;
+
+    private String cidrNotation;
+    private String first;
+    private String last;
+    private IpRange range;
+
+    @Setup
+    public void setUp() throws Exception {
+        cidrNotation = "10.20.30.40/" + prefixLength;
+        range = IpRange.ofSubnet((Inet4Address) InetAddress.getByName("10.20.30.40"), prefixLength);
+        first = IpRange.toString(range.first());
+        last = IpRange.toString(range.last());
+    }
+
+    @Benchmark
+    public List<LegacyIpPort> subnetUtils() {
+        Set<String> addresses = Set.of(new SubnetUtils(cidrNotation).getInfo().getAllAddresses());
+        return legacyIpPorts(addresses);
+    }
+
+    @Benchmark
+    public List<LegacyIpPort> stringFormat() {
+        Set<String> addresses = new HashSet<>();
+        long ip1 = ip2long(first);
+        long ip2 = ip2long(last);
+        for (long ip = ip1; ip <= ip2; ip++)
+            addresses.add(long2ip(ip));
+        return legacyIpPorts(addresses);
+    }
+
+    @Benchmark
+    public void ipSet(Blackhole blackhole) {
+        PrimitiveIterator.OfInt ips = new IpSet(range).iterator();
+        while (ips.hasNext()) {
+            int ip = ips.nextInt();
+            for (int port : PORTS)
+                blackhole.consume(ip ^ port);
+        }
+    }
+
+    @Benchmark
+    public void ipSetFormatted(Blackhole blackhole) {
+        PrimitiveIterator.OfInt ips = new IpSet(range).iterator();
+        while (ips.hasNext()) {
+            String ip = IpRange.toString(ips.nextInt());
+            for (int port : PORTS)
+                blackhole.consume(ip);
+        }
+    }
+
+    // Every IP:port record of the scan, built up front as NetworkScan did
+    private static List<LegacyIpPort> legacyIpPorts(Set<String> addresses) {
+        List<LegacyIpPort> ipPorts = new ArrayList<>();
+        addresses.forEach(ip -> Arrays.stream(PORTS).forEach(port -> ipPorts.add(new LegacyIpPort(ip, port))));
+        return ipPorts;
+    }
+
+    private static long ip2long(String ip) {
+        long[] digits = Arrays.stream(ip.split("\\.")).mapToLong(Long::parseLong).toArray();
+        return digits[0] << 24 | digits[1] << 16 | digits[2] << 8 | digits[3];
+    }
+
+    private static String long2ip(long ip) {
+        return String.format("%d.%d.%d.%d", (ip >> 24 & 0xff), (ip >> 16 & 0xff), (ip >> 8 & 0xff), (ip & 0xff));
+    }
+
+    public record LegacyIpPort(String ip, int port) {
+    }
+}
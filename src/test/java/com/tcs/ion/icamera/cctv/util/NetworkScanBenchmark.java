@@ -0,0 +1,195 @@
+package com.tcs.ion.icamera.cctv.util;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Times {@link NetworkScan#scan(int)} with the {@link NetworkScan.Engine#BLOCKING} and the
+ * {@link NetworkScan.Engine#NIO} engine against a farm of loopback listeners, for a growing
+ * number of addresses.
+ * <p>
+ * The farm spreads the addresses of {@code 127.1.0.0/16} over three kinds of host, so that
+ * the scan meets the same mix as on a site:
+ * <ul>
+ *     <li>one address in eight accepts connections on the scanned port, like a camera,</li>
+ *     <li>one address in eight by default listens but never accepts, and its full accept queue
+ *     drops every further SYN, so its connects run to the timeout like a host that does not
+ *     answer,</li>
+ *     <li>the others have no listener and refuse the connection at once.</li>
+ * </ul>
+ * A second port is scanned on every address, with no listener anywhere.
+ * <p>
+ * Run it on Linux, where every {@code 127.0.0.0/8} address is local, with
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dmain-class=com.tcs.ion.icamera.cctv.util.NetworkScanBenchmark
+ * </pre>
+ * The address counts, the connect timeout and the number of runs of each can be set with
+ * the {@code bench.addresses}, {@code bench.timeout} and {@code bench.runs} system properties,
+ * and how many addresses in eight are silent with {@code bench.silent}, up to seven. On a
+ * real site most of the addresses of a subnet are unused and time out rather than refuse.
+ * <p>
+ * Each row gives the wall time and the CPU time of the process for the fastest run of
+ * each engine.
+ */
+public class NetworkScanBenchmark {
+    private static final String FARM_PREFIX = "127.1.";
+    private static final int OPEN_PORT = 15540;
+    private static final int CLOSED_PORT = 15541;
+
+    private NetworkScanBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int[] addressCounts = Arrays.stream(System.getProperty("bench.addresses", "256,1024,4096").split(","))
+                .mapToInt(count -> Integer.parseInt(count.trim()))
+                .toArray();
+        int timeout = Integer.getInteger("bench.timeout", 500);
+        int runs = Integer.getInteger("bench.runs", 3);
+        int silentPerEight = Math.clamp(Integer.getInteger("bench.silent", 1), 0, 7);
+        int maxAddresses = Arrays.stream(addressCounts).max().orElse(0);
+
+        try (Farm farm = new Farm(maxAddresses, silentPerEight)) {
+            System.out.printf("Listener farm of %d addresses: %d accepting, %d silent, connect timeout %d ms, best of %d runs%n",
+                    maxAddresses, farm.accepting(), farm.silent(), timeout, runs);
+            System.out.printf("%10s %10s %12s %12s %12s %12s %10s%n",
+                    "addresses", "connects", "BLOCKING ms", "cpu ms", "NIO ms", "cpu ms", "speed-up");
+
+            // Warm both engines up, so the first row does not pay for class loading and JIT
+            scan(NetworkScan.Engine.BLOCKING, 64, timeout);
+            scan(NetworkScan.Engine.NIO, 64, timeout);
+
+            for (int addresses : addressCounts) {
+                long[] blocking = best(NetworkScan.Engine.BLOCKING, addresses, timeout, runs);
+                long[] nio = best(NetworkScan.Engine.NIO, addresses, timeout, runs);
+                System.out.printf("%10d %10d %12d %12d %12d %12d %9.1fx%n", addresses, 2 * addresses,
+                        blocking[0], blocking[1], nio[0], nio[1], (double) blocking[0] / nio[0]);
+            }
+        }
+        System.exit(0);
+    }
+
+    // The wall and CPU time of the fastest of the runs, as the slower ones only add the noise of the machine
+    private static long[] best(NetworkScan.Engine engine, int addresses, int timeout, int runs) {
+        long[] best = {Long.MAX_VALUE, 0};
+        for (int run = 0; run < runs; run++) {
+            long[] times = scan(engine, addresses, timeout);
+            if (times[0] < best[0])
+                best = times;
+        }
+        return best;
+    }
+
+    private static long[] scan(NetworkScan.Engine engine, int addresses, int timeout) {
+        IpSet ips = new IpSet(new IpRange(IpRange.toInt(address(0)), IpRange.toInt(address(addresses - 1))));
+        NetworkScan scan = new NetworkScan(ips, Set.of(OPEN_PORT, CLOSED_PORT), engine);
+        long start = System.nanoTime();
+        long cpuStart = cpuTime();
+        Map<String, List<Integer>> reachable = scan.scan(timeout);
+        long cpuMillis = (cpuTime() - cpuStart) / 1_000_000;
+        long millis = (System.nanoTime() - start) / 1_000_000;
+
+        int expected = (addresses + 7) / 8;
+        if (reachable.size() != expected)
+            throw new IllegalStateException(engine + " found " + reachable.size() + " of " + expected + " accepting addresses");
+        return new long[]{millis, cpuMillis};
+    }
+
+    // The CPU time of the whole process, as virtual threads have none of their own to measure
+    private static long cpuTime() {
+        return ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean()).getProcessCpuTime();
+    }
+
+    private static String address(int index) {
+        return FARM_PREFIX + (index >> 8) + "." + (index & 0xff);
+    }
+
+    /**
+     * The loopback listeners, with a selector thread that accepts and closes every
+     * connection to the accepting ones.
+     */
+    private static class Farm implements AutoCloseable {
+        private final Selector selector = Selector.open();
+        private final List<ServerSocketChannel> listeners = new ArrayList<>();
+        // Connections that fill the accept queues of the silent listeners
+        private final List<SocketChannel> fillers = new ArrayList<>();
+        private final Thread acceptor;
+        private int accepting;
+        private int silent;
+
+        Farm(int addresses, int silentPerEight) throws IOException {
+            for (int i = 0; i < addresses; i++) {
+                if (i % 8 == 0) {
+                    ServerSocketChannel listener = listen(address(i), 128);
+                    listener.configureBlocking(false);
+                    listener.register(selector, SelectionKey.OP_ACCEPT);
+                    accepting++;
+                } else if (i % 8 <= silentPerEight) {
+                    // A backlog of one queues two connections, after which SYNs are dropped
+                    listen(address(i), 1);
+                    for (int filler = 0; filler < 2; filler++) {
+                        SocketChannel channel = SocketChannel.open();
+                        channel.configureBlocking(false);
+                        channel.connect(new InetSocketAddress(address(i), OPEN_PORT));
+                        fillers.add(channel);
+                    }
+                    silent++;
+                }
+            }
+
+            acceptor = Thread.ofPlatform().name("bench-acceptor").daemon().start(this::accept);
+        }
+
+        private ServerSocketChannel listen(String address, int backlog) throws IOException {
+            ServerSocketChannel listener = ServerSocketChannel.open();
+            listener.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            listener.bind(new InetSocketAddress(address, OPEN_PORT), backlog);
+            listeners.add(listener);
+            return listener;
+        }
+
+        private void accept() {
+            try {
+                while (selector.isOpen()) {
+                    selector.select();
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        SocketChannel channel;
+                        while ((channel = ((ServerSocketChannel) key.channel()).accept()) != null)
+                            channel.close();
+                    }
+                    selector.selectedKeys().clear();
+                }
+            } catch (IOException | RuntimeException e) {
+                // The farm was closed
+            }
+        }
+
+        int accepting() {
+            return accepting;
+        }
+
+        int silent() {
+            return silent;
+        }
+
+        @Override
+        public void close() throws IOException {
+            selector.close();
+            acceptor.interrupt();
+            for (SocketChannel filler : fillers)
+                filler.close();
+            for (ServerSocketChannel listener : listeners)
+                listener.close();
+        }
+    }
+}